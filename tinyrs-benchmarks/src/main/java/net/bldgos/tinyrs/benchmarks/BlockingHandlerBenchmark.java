@@ -0,0 +1,212 @@
+package net.bldgos.tinyrs.benchmarks;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.bldgos.tinyrs.TinyrsDispatcherServlet;
+import net.bldgos.tinyrs.VirtualThread;
+
+/**
+ * Throughput of resource methods blocking for a fixed latency, e.g. on a database, under more concurrent clients
+ * than the container has threads: run on the container threads, or on virtual threads with {@link VirtualThread}.
+ * An embedded Tomcat with its default 200 request threads serves 400 clients, each sending requests one after
+ * the other on its own keep-alive connection. Container threads cap throughput at about 200/latency requests
+ * per second, virtual threads at the number of clients divided by latency. On machines with few cores, the short latency
+ * is bound by the CPU both clients and server share, the long one shows the difference.
+ * Needs JDK 21 for virtual threads, on older JVMs the virtual handler fails the trial instead of silently
+ * falling back to container threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=2, time=3)
+@Measurement(iterations=5, time=3)
+@Fork(1)
+@Threads(400)
+public class BlockingHandlerBenchmark {
+	private static final int CONTAINER_THREADS=200;
+
+	@SuppressWarnings("serial")
+	public static class BlockingServlet extends TinyrsDispatcherServlet {
+		volatile long latency;
+
+		@GET
+		@Path("/container")
+		public void container(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+			respond(response);
+		}
+
+		@VirtualThread
+		@GET
+		@Path("/virtual")
+		public void virtual(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+			respond(response);
+		}
+
+		private void respond(HttpServletResponse response) throws IOException {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			response.setContentType("text/plain");
+			response.setContentLength(2);
+			try(PrintWriter out=response.getWriter()) {
+				out.write("ok");
+			}
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Server {
+		@Param({"container", "virtual"})
+		public String handler;
+		@Param({"10", "200"})
+		public long latencyMillis;
+		private Tomcat tomcat;
+		int port;
+
+		@Setup(Level.Trial)
+		public void start() throws LifecycleException, IOException {
+			if(handler.equals("virtual")) {
+				try {
+					Thread.class.getMethod("ofVirtual");
+				} catch (NoSuchMethodException e) {
+					throw new IllegalStateException("virtual threads need JDK 21+");
+				}
+			}
+			BlockingServlet servlet=new BlockingServlet();
+			servlet.latency=latencyMillis;
+			tomcat=new Tomcat();
+			tomcat.setBaseDir(Files.createTempDirectory("tinyrs-benchmark").toString());
+			tomcat.setPort(0);
+			Connector connector=tomcat.getConnector();
+			connector.setProperty("maxThreads", String.valueOf(CONTAINER_THREADS));
+			connector.setProperty("maxKeepAliveRequests", "-1");
+			connector.setProperty("acceptCount", "1000");
+			Context context=tomcat.addContext("", null);
+			Wrapper wrapper=Tomcat.addServlet(context, "blocking", servlet);
+			wrapper.setAsyncSupported(true);
+			wrapper.setLoadOnStartup(1);
+			context.addServletMappingDecoded("/*", "blocking");
+			tomcat.start();
+			port=connector.getLocalPort();
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() throws LifecycleException {
+			tomcat.stop();
+			tomcat.destroy();
+		}
+	}
+
+	/**
+	 * Keep-alive connection of one client thread
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		private Socket socket;
+		private OutputStream output;
+		private InputStream input;
+		private byte[] request;
+		private final byte[] buffer=new byte[1024];
+
+		@Setup(Level.Trial)
+		public void connect(Server server) throws IOException {
+			socket=new Socket("localhost", server.port);
+			socket.setTcpNoDelay(true);
+			output=socket.getOutputStream();
+			input=socket.getInputStream();
+			request=("GET /"+server.handler+" HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			socket.close();
+		}
+
+		/**
+		 * @return status code, the response is read up to the end of its body of known length
+		 */
+		int exchange() throws IOException {
+			output.write(request);
+			output.flush();
+			int length=0;
+			int contentLength=0;
+			int headerEnd=-1;
+			while(headerEnd==-1) {
+				int n=input.read(buffer, length, buffer.length-length);
+				if(n<0) {
+					throw new EOFException();
+				}
+				length+=n;
+				headerEnd=indexOfHeaderEnd(buffer, length);
+			}
+			String head=new String(buffer, 0, headerEnd, StandardCharsets.ISO_8859_1);
+			int index=head.toLowerCase().indexOf("\r\ncontent-length:");
+			if(index!=-1) {
+				int end=head.indexOf('\r', index+2);
+				contentLength=Integer.parseInt(head.substring(index+17, end==-1?head.length():end).trim());
+			}
+			for(int remaining=contentLength-(length-headerEnd-4); remaining>0;) {
+				int n=input.read(buffer, 0, Math.min(buffer.length, remaining));
+				if(n<0) {
+					throw new EOFException();
+				}
+				remaining-=n;
+			}
+			return Integer.parseInt(head.substring(9, 12));
+		}
+
+		private static int indexOfHeaderEnd(byte[] b, int length) {
+			for(int i=0; i+3<length; i++) {
+				if(b[i]=='\r'&&b[i+1]=='\n'&&b[i+2]=='\r'&&b[i+3]=='\n') {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	@Benchmark
+	public int request(Client client) throws IOException {
+		int status=client.exchange();
+		if(status!=200) {
+			throw new IOException("status "+status);
+		}
+		return status;
+	}
+}
@@ -0,0 +1,67 @@
+package net.bldgos.tinyrs.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response holding the body in memory, recycled between invocations like the output buffer of a container.
+ * Only what entity writers call is supported.
+ */
+final class BufferResponse extends HttpServletResponseWrapper {
+	private static final HttpServletResponse UNSUPPORTED=(HttpServletResponse)Proxy.newProxyInstance(BufferResponse.class.getClassLoader(),
+			new Class<?>[] {HttpServletResponse.class}, (proxy, method, args)->{
+				throw new UnsupportedOperationException(method.getName());
+			});
+	final ByteArrayOutputStream body=new ByteArrayOutputStream(64*1024);
+	private final ServletOutputStream output=new ServletOutputStream() {
+		@Override
+		public void write(int b) {
+			body.write(b);
+		}
+		@Override
+		public void write(byte[] b, int off, int len) {
+			body.write(b, off, len);
+		}
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+		}
+	};
+	private String contentType;
+
+	BufferResponse() {
+		super(UNSUPPORTED);
+	}
+
+	void recycle() {
+		body.reset();
+		contentType=null;
+	}
+
+	@Override
+	public String getContentType() {
+		return contentType;
+	}
+
+	@Override
+	public void setContentType(String type) {
+		this.contentType=type;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		return output;
+	}
+
+	@Override
+	public void flushBuffer() {
+	}
+}
@@ -0,0 +1,114 @@
+package net.bldgos.tinyrs.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.ws.rs.core.MediaType;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import net.bldgos.tinyrs.EntityReader;
+import net.bldgos.tinyrs.EntityWriter;
+import net.bldgos.tinyrs.JacksonEntityReader;
+import net.bldgos.tinyrs.JacksonEntityWriter;
+
+/**
+ * Encoding and decoding throughput of the {@link Payloads} in JSON, CBOR and Smile, through the entity writers and readers
+ * the dispatcher negotiates. The encoded size of each payload is printed at the start of its trial, and encode also
+ * reports the bytes it produces per second as the encodedBytes counter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+@State(Scope.Thread)
+public class DataFormatBenchmark {
+	@Param({"json", "cbor", "smile"})
+	public String format;
+	@Param({"user", "orders", "metrics"})
+	public String payload;
+	private EntityWriter writer;
+	private EntityReader reader;
+	private MediaType mediaType;
+	private Object entity;
+	private Type type;
+	private Class<?> rawType;
+	private byte[] encoded;
+	private final BufferResponse response=new BufferResponse();
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class EncodedBytes {
+		public long encodedBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			encodedBytes=0;
+		}
+	}
+
+	@Setup
+	public void setUp() throws IOException {
+		switch(format) {
+		case "json":
+			mediaType=MediaType.APPLICATION_JSON_TYPE;
+			writer=new JacksonEntityWriter();
+			reader=new JacksonEntityReader();
+			break;
+		case "cbor":
+			mediaType=JacksonEntityWriter.APPLICATION_CBOR_TYPE;
+			writer=new JacksonEntityWriter(new ObjectMapper(new CBORFactory()), mediaType);
+			reader=new JacksonEntityReader(new ObjectMapper(new CBORFactory()), mediaType);
+			break;
+		case "smile":
+			mediaType=JacksonEntityWriter.APPLICATION_SMILE_TYPE;
+			writer=new JacksonEntityWriter(new ObjectMapper(new SmileFactory()), mediaType);
+			reader=new JacksonEntityReader(new ObjectMapper(new SmileFactory()), mediaType);
+			break;
+		default:
+			throw new IllegalArgumentException(format);
+		}
+		entity=Payloads.create(payload);
+		type=Payloads.typeOf(payload);
+		rawType=(Class<?>)(type instanceof ParameterizedType?((ParameterizedType)type).getRawType():type);
+		response.recycle();
+		writer.write(entity, type, mediaType, response);
+		encoded=response.body.toByteArray();
+		System.out.println(payload+" as "+format+": "+encoded.length+" bytes");
+	}
+
+	@Benchmark
+	public int encode(EncodedBytes counter) throws IOException {
+		response.recycle();
+		writer.write(entity, type, mediaType, response);
+		int size=response.body.size();
+		counter.encodedBytes+=size;
+		return size;
+	}
+
+	@Benchmark
+	public Object decode() throws IOException, ServletException {
+		return reader.read(rawType, type, mediaType, new ByteArrayInputStream(encoded));
+	}
+}
@@ -0,0 +1,95 @@
+package net.bldgos.tinyrs.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.bldgos.tinyrs.ResourceInvoker;
+import net.bldgos.tinyrs.TinyrsDispatcherServlet;
+
+/**
+ * Per-call cost of dispatching to a resource method: the LambdaMetafactory invoker created for public servlet classes,
+ * the MethodHandle invoker it falls back to for other classes, Method.invoke as dispatching was done before,
+ * and a direct call as baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Thread)
+public class InvokerBenchmark {
+	private PublicServlet publicServlet;
+	private HiddenServlet hiddenServlet;
+	private ResourceInvoker lambdaInvoker;
+	private ResourceInvoker methodHandleInvoker;
+	private Method method;
+
+	@SuppressWarnings("serial")
+	public static class PublicServlet extends TinyrsDispatcherServlet {
+		int calls;
+
+		public void hello(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+			calls++;
+		}
+	}
+
+	//not public, so that ResourceInvoker.of() falls back to a MethodHandle
+	@SuppressWarnings("serial")
+	static class HiddenServlet extends TinyrsDispatcherServlet {
+		int calls;
+
+		public void hello(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+			calls++;
+		}
+	}
+
+	@Setup
+	public void setUp() throws ReflectiveOperationException, ServletException {
+		publicServlet=new PublicServlet();
+		hiddenServlet=new HiddenServlet();
+		method=PublicServlet.class.getMethod("hello", HttpServletRequest.class, HttpServletResponse.class);
+		lambdaInvoker=ResourceInvoker.of(method);
+		methodHandleInvoker=ResourceInvoker.of(HiddenServlet.class.getMethod("hello", HttpServletRequest.class, HttpServletResponse.class));
+		if(lambdaInvoker.getClass().getName().equals(methodHandleInvoker.getClass().getName())) {
+			throw new IllegalStateException("both invokers are of "+lambdaInvoker.getClass());
+		}
+	}
+
+	@Benchmark
+	public Object lambdaMetafactory() throws ServletException, IOException {
+		return lambdaInvoker.invoke(publicServlet, null, null);
+	}
+
+	@Benchmark
+	public Object methodHandle() throws ServletException, IOException {
+		return methodHandleInvoker.invoke(hiddenServlet, null, null);
+	}
+
+	@Benchmark
+	public Object reflection() throws IllegalAccessException, InvocationTargetException {
+		return method.invoke(publicServlet, null, null);
+	}
+
+	@Benchmark
+	public int direct() throws ServletException, IOException {
+		publicServlet.hello(null, null);
+		return publicServlet.calls;
+	}
+}
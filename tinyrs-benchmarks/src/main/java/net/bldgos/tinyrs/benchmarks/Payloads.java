@@ -0,0 +1,142 @@
+package net.bldgos.tinyrs.benchmarks;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * Representative entities of a REST API, generated from a fixed seed so that every run encodes the same bytes:
+ * <ul>
+ * <li>user: a small object with nested object and string list, like a typical GET of one resource</li>
+ * <li>orders: a list of 100 orders of 5 line items, like a page of a collection</li>
+ * <li>metrics: a time series of 1000 points, mostly numbers</li>
+ * </ul>
+ */
+final class Payloads {
+	private Payloads() {
+	}
+
+	static Object create(String name) {
+		Random random=new Random(42);
+		switch(name) {
+		case "user":
+			return user(random, 1);
+		case "orders":
+			List<Order> orders=new ArrayList<>();
+			for(int i=0; i<100; i++) {
+				orders.add(order(random, i));
+			}
+			return orders;
+		case "metrics":
+			return series(random, 1000);
+		default:
+			throw new IllegalArgumentException(name);
+		}
+	}
+
+	static Type typeOf(String name) {
+		switch(name) {
+		case "user":
+			return User.class;
+		case "orders":
+			return new TypeReference<List<Order>>() {}.getType();
+		case "metrics":
+			return Series.class;
+		default:
+			throw new IllegalArgumentException(name);
+		}
+	}
+
+	private static User user(Random random, long id) {
+		User user=new User();
+		user.id=id;
+		user.name="User "+id;
+		user.email="user"+id+"@example.com";
+		user.active=random.nextBoolean();
+		user.roles=Arrays.asList("reader", "writer", random.nextBoolean()?"admin":"auditor");
+		user.createdAt=1500000000000L+random.nextInt(1<<30);
+		user.address=new Address();
+		user.address.street=random.nextInt(1000)+" Main Street";
+		user.address.city="Springfield";
+		user.address.postalCode=String.valueOf(10000+random.nextInt(90000));
+		user.address.country="US";
+		return user;
+	}
+
+	private static Order order(Random random, long id) {
+		Order order=new Order();
+		order.id=id;
+		order.customerId=random.nextInt(10000);
+		order.status=random.nextBoolean()?"SHIPPED":"PENDING";
+		order.placedAt=1500000000000L+random.nextInt(1<<30);
+		order.items=new ArrayList<>();
+		for(int i=0; i<5; i++) {
+			LineItem item=new LineItem();
+			item.sku="SKU-"+(100000+random.nextInt(900000));
+			item.quantity=1+random.nextInt(10);
+			item.price=Math.round(random.nextDouble()*10000)/100d;
+			order.items.add(item);
+		}
+		return order;
+	}
+
+	private static Series series(Random random, int points) {
+		Series series=new Series();
+		series.name="http.server.requests";
+		series.tags=new LinkedHashMap<>();
+		series.tags.put("method", "GET");
+		series.tags.put("status", "200");
+		series.tags.put("uri", "/v1/files");
+		series.timestamps=new long[points];
+		series.values=new double[points];
+		for(int i=0; i<points; i++) {
+			series.timestamps[i]=1500000000000L+i*10000L;
+			series.values[i]=random.nextGaussian()*5+20;
+		}
+		return series;
+	}
+
+	public static class User {
+		public long id;
+		public String name;
+		public String email;
+		public boolean active;
+		public List<String> roles;
+		public long createdAt;
+		public Address address;
+	}
+
+	public static class Address {
+		public String street;
+		public String city;
+		public String postalCode;
+		public String country;
+	}
+
+	public static class Order {
+		public long id;
+		public long customerId;
+		public String status;
+		public long placedAt;
+		public List<LineItem> items;
+	}
+
+	public static class LineItem {
+		public String sku;
+		public int quantity;
+		public double price;
+	}
+
+	public static class Series {
+		public String name;
+		public Map<String,String> tags;
+		public long[] timestamps;
+		public double[] values;
+	}
+}
@@ -0,0 +1,332 @@
+package net.bldgos.tinyrs.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a <code>&lt;servlet class name&gt;_RouteTable</code> class for every TinyrsDispatcherServlet subclass
+ * declaring resource methods, and validates resource method signatures at build time.
+ * The generated table lists the http methods, path and media types of each resource method and calls it directly,
+ * so that init() neither scans declared methods, reads the JAX-RS annotations nor spins invokers at runtime.
+ */
+@SupportedAnnotationTypes({"javax.ws.rs.GET","javax.ws.rs.POST","javax.ws.rs.PUT","javax.ws.rs.DELETE","javax.ws.rs.PATCH","javax.ws.rs.HEAD","javax.ws.rs.OPTIONS"})
+public class RouteTableProcessor extends AbstractProcessor {
+	private static final String SERVLET_CLASS="net.bldgos.tinyrs.TinyrsDispatcherServlet";
+	private static final String REQUEST_CLASS="javax.servlet.http.HttpServletRequest";
+	private static final String RESPONSE_CLASS="javax.servlet.http.HttpServletResponse";
+	private static final String ROUTE_TABLE_SUFFIX="_RouteTable";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		Elements elements=processingEnv.getElementUtils();
+		Types types=processingEnv.getTypeUtils();
+		TypeElement servletElement=elements.getTypeElement(SERVLET_CLASS);
+		if(servletElement==null) {//tinyrs-servlet is not on the classpath
+			return false;
+		}
+		TypeMirror servletType=types.erasure(servletElement.asType());
+		Map<TypeElement,List<ExecutableElement>> resourceMethods=new LinkedHashMap<>();
+		for(TypeElement annotation:annotations) {
+			for(Element element:roundEnv.getElementsAnnotatedWith(annotation)) {
+				if(element.getKind()!=ElementKind.METHOD) {
+					continue;
+				}
+				TypeElement servletClass=(TypeElement)element.getEnclosingElement();
+				if(!types.isSubtype(types.erasure(servletClass.asType()), servletType)) {
+					continue;
+				}
+				List<ExecutableElement> methods=resourceMethods.get(servletClass);
+				if(methods==null) {
+					methods=new ArrayList<>();
+					resourceMethods.put(servletClass, methods);
+				}
+				if(!methods.contains(element)) {
+					methods.add((ExecutableElement)element);
+				}
+			}
+		}
+		for(Map.Entry<TypeElement,List<ExecutableElement>> entry:resourceMethods.entrySet()) {
+			boolean valid=true;
+			Map<String,ExecutableElement> routes=new HashMap<>();
+			for(ExecutableElement method:entry.getValue()) {
+				valid&=validate(method, routes);
+			}
+			if(valid) {
+				generate(entry.getKey(), entry.getValue());
+			}
+		}
+		return false;
+	}
+
+	private boolean validate(ExecutableElement method, Map<String,ExecutableElement> routes) {
+		Types types=processingEnv.getTypeUtils();
+		boolean valid=true;
+		if(!method.getModifiers().contains(Modifier.PUBLIC)) {
+			error(method, "resource method should be have modifier public");
+			valid=false;
+		}
+		//other return types than void are written by an EntityWriter, or complete the request asynchronously
+		if(method.getReturnType().getKind()!=TypeKind.VOID&&hasAnnotation(method, "net.bldgos.tinyrs.NonBlocking")) {
+			error(method, "@NonBlocking resource method should have return type void");
+			valid=false;
+		}
+		List<? extends VariableElement> parameters=method.getParameters();
+		if(parameters.size()<2||
+				!types.erasure(parameters.get(0).asType()).toString().equals(REQUEST_CLASS)||
+				!types.erasure(parameters.get(1).asType()).toString().equals(RESPONSE_CLASS)) {
+			error(method, "resource method should have parameters (HttpServletRequest,HttpServletResponse) followed by bound parameters");
+			valid=false;
+		}
+		int entityParameters=0;
+		for(int i=2; i<parameters.size(); i++) {
+			VariableElement parameter=parameters.get(i);
+			if(!hasAnnotation(parameter, "javax.ws.rs.PathParam")&&!hasAnnotation(parameter, "javax.ws.rs.QueryParam")&&!hasAnnotation(parameter, "javax.ws.rs.HeaderParam")) {
+				entityParameters++;
+			}
+		}
+		if(entityParameters>1) {
+			error(method, "resource method should have at most one entity parameter without @PathParam, @QueryParam or @HeaderParam");
+			valid=false;
+		}
+		String path="/";
+		for(AnnotationMirror mirror:method.getAnnotationMirrors()) {
+			if(annotationName(mirror).equals("javax.ws.rs.Path")) {
+				path=String.valueOf(annotationValue(mirror));
+				if(!path.startsWith("/")) {
+					error(method, "value of @Path should start with /");
+					valid=false;
+				}
+			}
+		}
+		for(AnnotationMirror mirror:method.getAnnotationMirrors()) {
+			String name=annotationName(mirror);
+			if(!name.startsWith("javax.ws.rs.")||!getSupportedAnnotationTypes().contains(name)) {
+				continue;
+			}
+			String route=name.substring("javax.ws.rs.".length())+" "+routeKey(path);
+			ExecutableElement other=routes.put(route, method);
+			if(other!=null) {
+				error(method, "There exists another java method with the same http method and path: "+other.getSimpleName());
+				valid=false;
+			}
+		}
+		return valid;
+	}
+
+	private void generate(TypeElement servletClass, List<ExecutableElement> methods) {
+		for(Element e=servletClass; e.getKind()!=ElementKind.PACKAGE; e=e.getEnclosingElement()) {
+			if(e.getModifiers().contains(Modifier.PRIVATE)) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "no route table generated for private class, resource methods will be detected at runtime", servletClass);
+				return;
+			}
+		}
+		Elements elements=processingEnv.getElementUtils();
+		Types types=processingEnv.getTypeUtils();
+		PackageElement packageElement=elements.getPackageOf(servletClass);
+		String packageName=packageElement.isUnnamed()?"":packageElement.getQualifiedName().toString();
+		String binaryName=elements.getBinaryName(servletClass).toString();
+		String simpleName=(packageName.isEmpty()?binaryName:binaryName.substring(packageName.length()+1))+ROUTE_TABLE_SUFFIX;
+		String servletName=servletClass.getQualifiedName().toString();
+		StringBuilder source=new StringBuilder();
+		if(!packageName.isEmpty()) {
+			source.append("package ").append(packageName).append(";\n\n");
+		}
+		source.append("/**\n * Generated by tinyrs-processor from ").append(servletName).append(", do not edit.\n */\n");
+		source.append("public final class ").append(simpleName).append(" implements net.bldgos.tinyrs.RouteTable {\n\n");
+		source.append("\t@Override\n");
+		source.append("\tpublic void registerRoutes(net.bldgos.tinyrs.RouteTable.Registry registry) throws javax.servlet.ServletException {\n");
+		for(ExecutableElement method:methods) {
+			source.append("\t\tregistry.add(\"").append(method.getSimpleName()).append("\", new Class<?>[] {");
+			for(int i=0; i<method.getParameters().size(); i++) {
+				source.append(i==0?"":", ").append(types.erasure(method.getParameters().get(i).asType())).append(".class");
+			}
+			source.append("},\n\t\t\t\t");
+			appendRoute(source, method);
+			if(method.getParameters().size()>2) {//bound parameters, the dispatcher creates the invoker
+				source.append(", null);\n");
+				continue;
+			}
+			boolean isVoid=method.getReturnType().getKind()==TypeKind.VOID;
+			String call=(isVoid?"":"return ")+"(("+servletName+")servlet)."+method.getSimpleName()+"(request, response);"+(isVoid?" return null;":"");
+			source.append(", (servlet, request, response) -> ");
+			if(throwsOnlyDeclaredExceptions(method)) {
+				source.append("{ ").append(call).append(" });\n");
+			}else {
+				source.append("{\n");
+				source.append("\t\t\ttry {\n\t\t\t\t").append(call).append("\n");
+				source.append("\t\t\t} catch (javax.servlet.ServletException|java.io.IOException|RuntimeException e) {\n\t\t\t\tthrow e;\n");
+				source.append("\t\t\t} catch (Exception e) {\n\t\t\t\tthrow new javax.servlet.ServletException(e);\n\t\t\t}\n");
+				source.append("\t\t});\n");
+			}
+		}
+		source.append("\t}\n}\n");
+		String qualifiedName=packageName.isEmpty()?simpleName:packageName+"."+simpleName;
+		try {
+			JavaFileObject file=processingEnv.getFiler().createSourceFile(qualifiedName, servletClass);
+			try(Writer writer=file.openWriter()) {
+				writer.write(source.toString());
+			}
+		} catch (IOException e) {
+			error(servletClass, "cannot write route table "+qualifiedName+": "+e);
+		}
+	}
+
+	/**
+	 * Appends the http methods, path, consumes and produces of the resource method as arguments of RouteTable.Registry.add
+	 */
+	private void appendRoute(StringBuilder source, ExecutableElement method) {
+		Elements elements=processingEnv.getElementUtils();
+		List<String> httpMethods=new ArrayList<>();
+		String path="/";
+		List<String> consumes=null;
+		List<String> produces=null;
+		for(AnnotationMirror mirror:method.getAnnotationMirrors()) {
+			String name=annotationName(mirror);
+			if(name.equals("javax.ws.rs.Path")) {
+				path=String.valueOf(annotationValue(mirror));
+			}else if(name.equals("javax.ws.rs.Consumes")) {
+				consumes=stringValues(annotationValue(mirror));
+			}else if(name.equals("javax.ws.rs.Produces")) {
+				produces=stringValues(annotationValue(mirror));
+			}else if(name.startsWith("javax.ws.rs.")&&getSupportedAnnotationTypes().contains(name)) {
+				httpMethods.add(name.substring("javax.ws.rs.".length()));
+			}
+		}
+		appendStrings(source, httpMethods);
+		source.append(", ").append(elements.getConstantExpression(path)).append(", ");
+		appendStrings(source, consumes);
+		source.append(", ");
+		appendStrings(source, produces);
+	}
+
+	private void appendStrings(StringBuilder source, List<String> values) {
+		if(values==null) {
+			source.append("null");
+			return;
+		}
+		source.append("new String[] {");
+		for(int i=0; i<values.size(); i++) {
+			source.append(i==0?"":", ").append(processingEnv.getElementUtils().getConstantExpression(values.get(i)));
+		}
+		source.append("}");
+	}
+
+	private static List<String> stringValues(Object value) {
+		List<String> values=new ArrayList<>();
+		if(value instanceof List) {
+			for(Object v:(List<?>)value) {
+				values.add(String.valueOf(((AnnotationValue)v).getValue()));
+			}
+		}else if(value!=null) {
+			values.add(String.valueOf(value));
+		}
+		return values;
+	}
+
+	/**
+	 * Replaces template parameter names of a @Path value, so that templates the dispatcher routes alike
+	 * like /files/{id} and /files/{name} are detected as duplicates. Parameters with other regexes than [^/]+ stay apart.
+	 */
+	private static String routeKey(String path) {
+		StringBuilder key=new StringBuilder(path.length());
+		int i=0;
+		while(i<path.length()) {
+			char c=path.charAt(i++);
+			if(c!='{') {
+				key.append(c);
+				continue;
+			}
+			int start=i;
+			int depth=1;
+			while(i<path.length()&&depth>0) {
+				char d=path.charAt(i++);
+				if(d=='{') {
+					depth++;
+				}else if(d=='}') {
+					depth--;
+				}
+			}
+			String param=path.substring(start, depth>0?i:i-1);
+			int colon=param.indexOf(':');
+			String regex=colon==-1?"":param.substring(colon+1).trim();
+			key.append(regex.isEmpty()||regex.equals("[^/]+")?"{}":"{:"+regex+"}");
+		}
+		return key.toString();
+	}
+
+	private static boolean hasAnnotation(Element element, String name) {
+		for(AnnotationMirror mirror:element.getAnnotationMirrors()) {
+			if(annotationName(mirror).equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the method only throws exceptions which ResourceInvoker.invoke may throw
+	 */
+	private boolean throwsOnlyDeclaredExceptions(ExecutableElement method) {
+		Elements elements=processingEnv.getElementUtils();
+		Types types=processingEnv.getTypeUtils();
+		String[] allowed={"javax.servlet.ServletException","java.io.IOException","java.lang.RuntimeException","java.lang.Error"};
+		outer:for(TypeMirror thrown:method.getThrownTypes()) {
+			for(String name:allowed) {
+				TypeElement element=elements.getTypeElement(name);
+				if(element!=null&&types.isAssignable(thrown, element.asType())) {
+					continue outer;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private static String annotationName(AnnotationMirror mirror) {
+		return ((TypeElement)mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+	}
+
+	private static Object annotationValue(AnnotationMirror mirror) {
+		for(Map.Entry<? extends ExecutableElement,? extends AnnotationValue> e:mirror.getElementValues().entrySet()) {
+			if(e.getKey().getSimpleName().contentEquals("value")) {
+				return e.getValue().getValue();
+			}
+		}
+		return null;
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2010-2015 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * http://glassfish.java.net/public/CDDL+GPL_1_1.html
+ * or packager/legal/LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at packager/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package javax.ws.rs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds the value of a HTTP query parameter to a resource method parameter.
+ * The value is URL decoded. A default value can be specified using the
+ * {@link DefaultValue &#64;DefaultValue} annotation.
+ *
+ * The type of the annotated parameter must either:
+ * <ul>
+ * <li>Be a primitive type other than {@code char}.</li>
+ * <li>Have a static method named {@code fromString} or {@code valueOf}
+ * that accepts a single String argument (see, for example, {@link Integer#valueOf(String)}).</li>
+ * <li>Have a constructor that accepts a single String argument.</li>
+ * </ul>
+ * If the query parameter is represented by multiple values then the first one is used.
+ * A value that cannot be converted to the type results in 404 Not Found.
+ *
+ * @author Paul Sandoz
+ * @author Marc Hadley
+ * @see DefaultValue
+ * @since 1.0
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface QueryParam {
+
+    /**
+     * Defines the name of the HTTP query parameter whose value will be used
+     * to initialize the value of the annotated method parameter. The name is
+     * specified in decoded form, e.g. if the parameter name is "a b" then the
+     * value of the annotation is "a b", <i>not</i> "a+b" or "a%20b".
+     */
+    String value();
+}
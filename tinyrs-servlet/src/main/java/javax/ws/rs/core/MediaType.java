@@ -45,10 +45,9 @@
 package javax.ws.rs.core;
 
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
-import java.util.StringTokenizer;
 import java.util.TreeMap;
 
 /**
@@ -61,9 +60,29 @@ import java.util.TreeMap;
  */
 public class MediaType {
 
-    private String type;
-    private String subtype;
-    private Map<String, String> parameters;
+    private final String type;
+    private final String subtype;
+    /**
+     * Unparsed parameters starting with ';' as they appeared in the string passed to {@link #valueOf(String)},
+     * {@code null} when {@link #parameters} was supplied on construction.
+     */
+    private final String parameterString;
+    /**
+     * Built from {@link #parameterString} on first access.
+     */
+    private volatile Map<String, String> parameters;
+    /**
+     * Computed on first use, 0 if not yet computed.
+     */
+    private int hash;
+
+    private static final Map<String, String> EMPTY_PARAMETERS = Collections.emptyMap();
+
+    /**
+     * Canonical instances returned by {@link #valueOf(String)}: the media type constants keyed by their strings.
+     * Filled once by the static initializer, strings sent by clients never get in.
+     */
+    private static final Map<String, MediaType> CANONICAL_TYPES = new HashMap<String, MediaType>();
 
     /**
      * The media type {@code charset} parameter name.
@@ -187,55 +206,198 @@ public class MediaType {
      */
     public static final MediaType APPLICATION_JSON_PATCH_JSON_TYPE = new MediaType("application", "json-patch+json");
 
+    static {
+        MediaType[] constants = {WILDCARD_TYPE, APPLICATION_XML_TYPE, APPLICATION_ATOM_XML_TYPE, APPLICATION_XHTML_XML_TYPE,
+                APPLICATION_SVG_XML_TYPE, APPLICATION_JSON_TYPE, APPLICATION_FORM_URLENCODED_TYPE, MULTIPART_FORM_DATA_TYPE,
+                APPLICATION_OCTET_STREAM_TYPE, TEXT_PLAIN_TYPE, TEXT_XML_TYPE, TEXT_HTML_TYPE, SERVER_SENT_EVENTS_TYPE,
+                APPLICATION_JSON_PATCH_JSON_TYPE};
+        for (MediaType constant : constants) {
+            CANONICAL_TYPES.put(constant.toString(), constant);
+        }
+    }
+
     /**
-     * Creates a new instance of {@code MediaType} by parsing the supplied string.
+     * Returns a {@code MediaType} parsed from the supplied string. The media type constants of this
+     * class are returned for the corresponding strings, and for any other spelling of their
+     * parameterless {@code type/subtype}, e.g. {@code "Application/JSON"}.
      *
      * @param type the media type string.
-     * @return the newly created MediaType.
+     * @return the parsed MediaType, a constant of this class if it is one.
      * @throws IllegalArgumentException if the supplied string cannot be parsed
      *                                  or is {@code null}.
      */
     public static MediaType valueOf(String contentType) {
-        StringTokenizer st=new StringTokenizer(contentType, "; ");
-        String type=null;
-        String subType=null;
-        if(st.hasMoreTokens()) {
-            String token=st.nextToken();
-            int pos=token.indexOf('/');
-            type=token.substring(0,pos);
-            subType=token.substring(pos+1);
+        if (contentType == null) {
+            throw new IllegalArgumentException("media type is null");
         }
-        Map<String, String> m = null;
-        while(st.hasMoreTokens()) {
-            String token=st.nextToken();
-            int pos=token.indexOf('=');
-            String name=token.substring(0,pos);
-            String value=token.substring(pos+1);
-            if(value.length()>1&&value.charAt(0)=='"'&&value.charAt(value.length()-1)=='"') {
-                value=value.substring(1,value.length()-1);
-            }
-            if (m == null) {
-                m = new LinkedHashMap<String, String>();
+        MediaType mediaType = CANONICAL_TYPES.get(contentType);
+        if (mediaType != null) {
+            return mediaType;
+        }
+        mediaType = parse(contentType);
+        if (mediaType.parameters == EMPTY_PARAMETERS) {
+            MediaType canonical = CANONICAL_TYPES.get(mediaType.type + '/' + mediaType.subtype);
+            if (canonical != null) {
+                mediaType = canonical;
             }
-            m.put(name, value);
         }
-        return new MediaType(type, subType, m);
+        return mediaType;
     }
 
-    private static TreeMap<String, String> createParametersMap(Map<String, String> initialValues) {
-        final TreeMap<String, String> map = new TreeMap<String, String>(new Comparator<String>() {
+    /**
+     * Parses {@code type "/" subtype *( OWS ";" OWS parameter )} in a single pass as specified by
+     * <a href="https://tools.ietf.org/html/rfc7231#section-3.1.1.1">RFC 7231 section 3.1.1.1</a>.
+     * Parameters are only validated here, their map is built on first call to {@link #getParameters()}.
+     */
+    private static MediaType parse(String s) {
+        int length = s.length();
+        int i = skipWhitespace(s, 0);
+        int typeStart = i;
+        i = skipToken(s, i);
+        if (i == typeStart) {
+            throw illegalMediaType(s);
+        }
+        String type = s.substring(typeStart, i);
+        String subtype;
+        if (i < length && s.charAt(i) == '/') {
+            int subtypeStart = ++i;
+            i = skipToken(s, i);
+            if (i == subtypeStart) {
+                throw illegalMediaType(s);
+            }
+            subtype = s.substring(subtypeStart, i);
+        } else if (type.equals(MEDIA_TYPE_WILDCARD)) {
+            // a single "*" is sent by some clients, e.g. HttpURLConnection
+            subtype = MEDIA_TYPE_WILDCARD;
+        } else {
+            throw illegalMediaType(s);
+        }
+        i = skipWhitespace(s, i);
+        if (i == length) {
+            return new MediaType(type, subtype, EMPTY_PARAMETERS, null);
+        }
+        if (s.charAt(i) != ';') {
+            throw illegalMediaType(s);
+        }
+        String parameterString = s.substring(i);
+        if (!parseParameters(parameterString, null)) {
+            return new MediaType(type, subtype, EMPTY_PARAMETERS, null);
+        }
+        return new MediaType(type, subtype, null, parameterString);
+    }
 
-            @Override
-            public int compare(String o1, String o2) {
-                return o1.compareToIgnoreCase(o2);
+    /**
+     * @param s    parameters starting with ';'
+     * @param map  receives the parameters, or {@code null} to only validate them
+     * @return true if there is at least one parameter
+     */
+    private static boolean parseParameters(String s, Map<String, String> map) {
+        int length = s.length();
+        boolean found = false;
+        int i = 0;
+        while (i < length) {
+            // s.charAt(i) == ';'
+            i = skipWhitespace(s, i + 1);
+            if (i == length) {
+                break;
+            }
+            if (s.charAt(i) == ';') {
+                continue;
+            }
+            int nameStart = i;
+            i = skipToken(s, i);
+            int nameEnd = i;
+            i = skipWhitespace(s, i);
+            if (nameEnd == nameStart || i == length || s.charAt(i) != '=') {
+                throw illegalMediaType(s);
+            }
+            i = skipWhitespace(s, i + 1);
+            String value = null;
+            if (i < length && s.charAt(i) == '"') {
+                StringBuilder b = map == null ? null : new StringBuilder();
+                boolean closed = false;
+                i++;
+                while (i < length) {
+                    char c = s.charAt(i++);
+                    if (c == '"') {
+                        closed = true;
+                        break;
+                    }
+                    if (c == '\\' && i < length) { // quoted-pair
+                        c = s.charAt(i++);
+                    }
+                    if (b != null) {
+                        b.append(c);
+                    }
+                }
+                if (!closed) {
+                    throw illegalMediaType(s);
+                }
+                if (b != null) {
+                    value = b.toString();
+                }
+            } else {
+                int valueStart = i;
+                i = skipToken(s, i);
+                if (i == valueStart) {
+                    throw illegalMediaType(s);
+                }
+                if (map != null) {
+                    value = s.substring(valueStart, i);
+                }
+            }
+            if (map != null) {
+                map.put(s.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT), value);
             }
-        });
+            found = true;
+            i = skipWhitespace(s, i);
+            if (i < length && s.charAt(i) != ';') {
+                throw illegalMediaType(s);
+            }
+        }
+        return found;
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length() && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipToken(String s, int i) {
+        while (i < s.length() && isTokenChar(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * tchar as defined by <a href="https://tools.ietf.org/html/rfc7230#section-3.2.6">RFC 7230 section 3.2.6</a>
+     */
+    private static boolean isTokenChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "!#$%&'*+-.^_`|~".indexOf(c) != -1;
+    }
+
+    private static IllegalArgumentException illegalMediaType(String s) {
+        return new IllegalArgumentException("illegal media type: " + s);
+    }
+
+    private static Map<String, String> createParametersMap(Map<String, String> initialValues, String charset) {
+        boolean hasCharset = charset != null && !charset.isEmpty();
+        if ((initialValues == null || initialValues.isEmpty()) && !hasCharset) {
+            return EMPTY_PARAMETERS;
+        }
+        TreeMap<String, String> map = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
         if (initialValues != null) {
             for (Map.Entry<String, String> e : initialValues.entrySet()) {
-                map.put(e.getKey().toLowerCase(), e.getValue());
+                map.put(e.getKey().toLowerCase(Locale.ROOT), e.getValue());
             }
         }
-        return map;
+        if (hasCharset) {
+            map.put(CHARSET_PARAMETER, charset);
+        }
+        return Collections.unmodifiableMap(map);
     }
 
     /**
@@ -250,7 +412,7 @@ public class MediaType {
      *                   empty map.
      */
     public MediaType(String type, String subtype, Map<String, String> parameters) {
-        this(type, subtype, null, createParametersMap(parameters));
+        this(type, subtype, createParametersMap(parameters, null), null);
     }
 
     /**
@@ -262,7 +424,7 @@ public class MediaType {
      *                {@link #MEDIA_TYPE_WILDCARD}
      */
     public MediaType(String type, String subtype) {
-        this(type, subtype, null, null);
+        this(type, subtype, EMPTY_PARAMETERS, null);
     }
 
     /**
@@ -277,7 +439,7 @@ public class MediaType {
      *                the {@value #CHARSET_PARAMETER} parameter will not be set.
      */
     public MediaType(String type, String subtype, String charset) {
-        this(type, subtype, charset, null);
+        this(type, subtype, createParametersMap(null, charset), null);
     }
 
     /**
@@ -285,32 +447,18 @@ public class MediaType {
      * Consider using the constant {@link #WILDCARD_TYPE} instead.
      */
     public MediaType() {
-        this(MEDIA_TYPE_WILDCARD, MEDIA_TYPE_WILDCARD, null, null);
+        this(MEDIA_TYPE_WILDCARD, MEDIA_TYPE_WILDCARD, EMPTY_PARAMETERS, null);
     }
 
-    private MediaType(String type, String subtype, String charset, Map<String, String> parameterMap) {
-
-        this.type = type == null ? MEDIA_TYPE_WILDCARD : type;
-        this.subtype = subtype == null ? MEDIA_TYPE_WILDCARD : subtype;
-
-        if (parameterMap == null) {
-            parameterMap = new TreeMap<String, String>(new Comparator<String>() {
-
-                @Override
-                public int compare(String o1, String o2) {
-                    return o1.compareToIgnoreCase(o2);
-                }
-            });
-        }
-
-        if (charset != null && !charset.isEmpty()) {
-            parameterMap.put(CHARSET_PARAMETER, charset);
-        }
-        this.parameters = Collections.unmodifiableMap(parameterMap);
+    private MediaType(String type, String subtype, Map<String, String> parameters, String parameterString) {
+        this.type = type == null ? MEDIA_TYPE_WILDCARD : type.toLowerCase(Locale.ROOT);
+        this.subtype = subtype == null ? MEDIA_TYPE_WILDCARD : subtype.toLowerCase(Locale.ROOT);
+        this.parameters = parameters;
+        this.parameterString = parameterString;
     }
 
     /**
-     * Getter for primary type.
+     * Getter for primary type, in lower case.
      *
      * @return value of primary type.
      */
@@ -328,7 +476,7 @@ public class MediaType {
     }
 
     /**
-     * Getter for subtype.
+     * Getter for subtype, in lower case.
      *
      * @return value of subtype.
      */
@@ -351,7 +499,13 @@ public class MediaType {
      * @return an immutable map of parameters.
      */
     public Map<String, String> getParameters() {
-        return parameters;
+        Map<String, String> map = parameters;
+        if (map == null) {
+            TreeMap<String, String> parsed = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            parseParameters(parameterString, parsed);
+            parameters = map = Collections.unmodifiableMap(parsed);
+        }
+        return map;
     }
 
     /**
@@ -365,7 +519,7 @@ public class MediaType {
      * @since 2.0
      */
     public MediaType withCharset(String charset) {
-        return new MediaType(this.type, this.subtype, charset, createParametersMap(this.parameters));
+        return new MediaType(this.type, this.subtype, createParametersMap(getParameters(), charset), null);
     }
 
     /**
@@ -377,11 +531,15 @@ public class MediaType {
      * @return true if the types are compatible, false otherwise.
      */
     public boolean isCompatible(MediaType other) {
+        if (this == other) { // canonical instances returned by valueOf
+            return true;
+        }
+        // type and subtype are stored in lower case
         return other != null && // return false if other is null, else
                 (type.equals(MEDIA_TYPE_WILDCARD) || other.type.equals(MEDIA_TYPE_WILDCARD) || // both are wildcard types, or
-                        (type.equalsIgnoreCase(other.type) && (subtype.equals(MEDIA_TYPE_WILDCARD)
+                        (type.equals(other.type) && (subtype.equals(MEDIA_TYPE_WILDCARD)
                                 || other.subtype.equals(MEDIA_TYPE_WILDCARD))) || // same types, wildcard sub-types, or
-                        (type.equalsIgnoreCase(other.type) && this.subtype.equalsIgnoreCase(other.subtype))); // same types & sub-types
+                        (type.equals(other.type) && this.subtype.equals(other.subtype))); // same types & sub-types
     }
 
     /**
@@ -404,18 +562,22 @@ public class MediaType {
      */
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (!(obj instanceof MediaType)) {
             return false;
         }
 
         MediaType other = (MediaType) obj;
-        return (this.type.equalsIgnoreCase(other.type)
-                && this.subtype.equalsIgnoreCase(other.subtype)
-                && this.parameters.equals(other.parameters));
+        return (this.hashCode() == other.hashCode()
+                && this.type.equals(other.type)
+                && this.subtype.equals(other.subtype)
+                && this.getParameters().equals(other.getParameters()));
     }
 
     /**
-     * Generate a hash code from the type, subtype and parameters.
+     * Generate a hash code from the type, subtype and parameters. It is computed once and cached.
      * <p/>
      * Note that the {@link #equals(java.lang.Object)} implementation does not perform
      * a class equality check ({@code this.getClass() == obj.getClass()}). Therefore
@@ -429,7 +591,12 @@ public class MediaType {
      */
     @Override
     public int hashCode() {
-        return (this.type.toLowerCase() + this.subtype.toLowerCase()).hashCode() + this.parameters.hashCode();
+        int h = hash;
+        if (h == 0) {
+            h = 31 * type.hashCode() + subtype.hashCode() + getParameters().hashCode();
+            hash = h;
+        }
+        return h;
     }
 
     /**
@@ -442,8 +609,22 @@ public class MediaType {
     public String toString() {
         StringBuilder b = new StringBuilder();
         b.append(type).append('/').append(subtype);
-        for (Map.Entry<String, String> e : parameters.entrySet()) {
-            b.append(";").append(e.getKey()).append('=').append(e.getValue());
+        for (Map.Entry<String, String> e : getParameters().entrySet()) {
+            b.append(";").append(e.getKey()).append('=');
+            String value = e.getValue();
+            if (!value.isEmpty() && skipToken(value, 0) == value.length()) {
+                b.append(value);
+            } else {
+                b.append('"');
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    if (c == '"' || c == '\\') {
+                        b.append('\\');
+                    }
+                    b.append(c);
+                }
+                b.append('"');
+            }
         }
         return b.toString();
     }
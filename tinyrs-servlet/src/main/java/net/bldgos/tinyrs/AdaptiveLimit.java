@@ -0,0 +1,30 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the number of concurrent requests of a resource method, or of each resource method of a servlet class,
+ * to a limit adjusted from measured latency: the limit shrinks as soon as latency rises above its long-term average,
+ * i.e. when requests start queuing, and grows back while latency stays flat. Requests over the limit are answered
+ * 503 with Retry-After. A {@link Bulkhead} of a resource method takes precedence over an adaptive limit of its class.
+ * Servlet init-param <code>net.bldgos.tinyrs.adaptiveLimit=true</code> applies the default adaptive limit to every resource method.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface AdaptiveLimit {
+	int initialLimit() default 20;
+
+	int minLimit() default 1;
+
+	int maxLimit() default 1000;
+
+	/**
+	 * @return seconds sent in response header Retry-After of rejected requests
+	 */
+	int retryAfter() default 1;
+}
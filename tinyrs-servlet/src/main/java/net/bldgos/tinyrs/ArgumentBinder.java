@@ -0,0 +1,68 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Creates invokers of resource methods having parameters bound from the request after (HttpServletRequest,HttpServletResponse).
+ * Each parameter is computed by a binder method handle from the request and passed on directly,
+ * neither through an Object[] nor boxed if the binder returns a primitive.
+ */
+final class ArgumentBinder {
+	private static final MethodType INVOKE_TYPE=MethodType.methodType(Object.class, TinyrsDispatcherServlet.class, HttpServletRequest.class, HttpServletResponse.class);
+
+	private ArgumentBinder() {
+	}
+
+	/**
+	 * @param binders of the parameters following (HttpServletRequest,HttpServletResponse),
+	 * each of type (HttpServletRequest) returning the parameter type
+	 */
+	static ResourceInvoker invoker(Method method, MethodHandle[] binders) throws ServletException {
+		MethodHandle handle=unreflect(method);
+		//(servlet,request,response,p2..pn) -> (servlet,request,response,request..request)
+		handle=MethodHandles.filterArguments(handle, 3, binders);
+		int[] reorder=new int[3+binders.length];
+		for(int i=0; i<reorder.length; i++) {
+			reorder[i]=i<3?i:1;
+		}
+		handle=handle.asType(handle.type().changeReturnType(Object.class).changeParameterType(0, TinyrsDispatcherServlet.class));
+		return invoker(MethodHandles.permuteArguments(handle, INVOKE_TYPE, reorder));
+	}
+
+	/**
+	 * @param exactHandle of type (TinyrsDispatcherServlet,HttpServletRequest,HttpServletResponse)Object
+	 */
+	static ResourceInvoker invoker(MethodHandle exactHandle) {
+		return (servlet, request, response)->{
+			try {
+				return (Object)exactHandle.invokeExact(servlet, request, response);
+			} catch (ServletException|IOException|RuntimeException|Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new ServletException(e);
+			}
+		};
+	}
+
+	static MethodHandle unreflect(Method method) throws ServletException {
+		MethodHandles.Lookup lookup=MethodHandles.lookup();
+		try {
+			return lookup.unreflect(method);
+		} catch (IllegalAccessException e) {
+			try {
+				method.setAccessible(true);
+				return lookup.unreflect(method);
+			} catch (IllegalAccessException|SecurityException e2) {
+				throw new ServletException("resource method is not accessible: "+method, e2);
+			}
+		}
+	}
+}
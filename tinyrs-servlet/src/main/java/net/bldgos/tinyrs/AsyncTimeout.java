@@ -0,0 +1,20 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Timeout in milliseconds of a resource method returning a CompletionStage, or of a {@link NonBlocking} one.
+ * If the stage is not completed in time it is cancelled and 503 is sent. Without this annotation
+ * a CompletionStage gets the container's default async timeout and a {@link NonBlocking} transfer none.
+ * A value of 0 means no timeout.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface AsyncTimeout {
+	long value();
+}
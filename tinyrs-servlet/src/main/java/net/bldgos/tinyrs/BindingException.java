@@ -0,0 +1,29 @@
+package net.bldgos.tinyrs;
+
+import javax.servlet.ServletException;
+
+/**
+ * Thrown when an argument of a resource method cannot be bound from the request, e.g. a malformed or too large entity.
+ * The dispatcher responds with its status instead of invoking the resource method.
+ */
+public class BindingException extends ServletException {
+	private static final long serialVersionUID = -6408370932126283491L;
+	private final int status;
+
+	/**
+	 * @param status http status of the error response, e.g. 400 Bad Request
+	 */
+	public BindingException(int status, String message, Throwable cause) {
+		super(message, cause);
+		this.status=status;
+	}
+
+	public BindingException(int status, String message) {
+		super(message);
+		this.status=status;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+}
@@ -0,0 +1,42 @@
+package net.bldgos.tinyrs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free cache holding at most maximumSize entries. It is meant for small key spaces like
+ * the distinct Accept headers sent by clients. Once full, every new entry evicts one at random, so that
+ * a client rotating junk keys cannot flush the entries of well-behaved clients all at once.
+ */
+class BoundedCache<K,V> {
+	private final ConcurrentHashMap<K,V> map;
+	//key of every entry, in the slot it evicts from when replaced
+	private final AtomicReferenceArray<K> keys;
+	//slots taken so far, until the cache is full
+	private final AtomicInteger filled=new AtomicInteger();
+
+	BoundedCache(int maximumSize) {
+		this.map=new ConcurrentHashMap<>();
+		this.keys=new AtomicReferenceArray<>(maximumSize);
+	}
+
+	V get(K key) {
+		return map.get(key);
+	}
+
+	void put(K key, V value) {
+		if(map.putIfAbsent(key, value)!=null) {//values are derived from their keys
+			return;
+		}
+		int slot=filled.get()<keys.length()?filled.getAndIncrement():keys.length();
+		if(slot>=keys.length()) {
+			slot=ThreadLocalRandom.current().nextInt(keys.length());
+		}
+		K evicted=keys.getAndSet(slot, key);
+		if(evicted!=null&&!evicted.equals(key)) {
+			map.remove(evicted);
+		}
+	}
+}
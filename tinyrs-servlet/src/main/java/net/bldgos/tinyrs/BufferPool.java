@@ -0,0 +1,45 @@
+package net.bldgos.tinyrs;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free pool of fixed size I/O buffers, so that copying large entities does not allocate a new buffer per request.
+ * Buffers are heap backed because ServletOutputStream and ServletInputStream only accept byte arrays,
+ * a direct buffer would cost one extra copy per chunk.
+ */
+final class BufferPool {
+	static final int BUFFER_SIZE=64*1024;
+	private static final int MAX_POOLED=64;
+	private static final ConcurrentLinkedQueue<ByteBuffer> buffers=new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooled=new AtomicInteger();
+
+	private BufferPool() {
+	}
+
+	/**
+	 * @return a cleared buffer of {@link #BUFFER_SIZE} bytes with an accessible array
+	 */
+	static ByteBuffer acquire() {
+		ByteBuffer buffer=buffers.poll();
+		if(buffer==null) {
+			return ByteBuffer.allocate(BUFFER_SIZE);
+		}
+		pooled.decrementAndGet();
+		((Buffer)buffer).clear();
+		return buffer;
+	}
+
+	static void release(ByteBuffer buffer) {
+		if(buffer.capacity()!=BUFFER_SIZE||!buffer.hasArray()) {
+			return;
+		}
+		if(pooled.incrementAndGet()>MAX_POOLED) {
+			pooled.decrementAndGet();
+			return;
+		}
+		buffers.offer(buffer);
+	}
+}
@@ -0,0 +1,28 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the number of concurrent requests of a resource method. Requests over the limit are not queued
+ * but answered 503 with Retry-After immediately, so that a saturated route cannot take every container thread.
+ * An asynchronous request holds its permit until its AsyncContext completes.
+ * The limit may be overridden by servlet init-param <code>net.bldgos.tinyrs.bulkhead.&lt;java method name&gt;</code>.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Bulkhead {
+	/**
+	 * @return maximum number of concurrent requests
+	 */
+	int value();
+
+	/**
+	 * @return seconds sent in response header Retry-After of rejected requests
+	 */
+	int retryAfter() default 1;
+}
@@ -0,0 +1,30 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches the responses of a @GET resource method by path, query, negotiated type and credentials, so that
+ * the method runs again only once the cached response expired, was evicted or was invalidated with
+ * {@link TinyrsDispatcherServlet#invalidateCache(String)}. Concurrent misses of the same key are coalesced
+ * like with {@link Coalesce}. Only responses replayable by {@link Coalesce} and without Cache-Control
+ * no-store or private are cached. All resource methods of a servlet share a budget of 64MiB, configurable with
+ * servlet init-param <code>net.bldgos.tinyrs.responseCache.maxBytes</code>.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Cached {
+	/**
+	 * @return seconds a response stays fresh
+	 */
+	long ttl();
+
+	/**
+	 * @return maximum size in bytes of a cached response body
+	 */
+	int maxBytes() default 1024*1024;
+}
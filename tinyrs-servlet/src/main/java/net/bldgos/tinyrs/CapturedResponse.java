@@ -0,0 +1,115 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Status, headers and body of a completed response, replayable to other responses.
+ */
+final class CapturedResponse {
+	private final int status;
+	private final String contentType;
+	//name, value pairs in the order they were added, except Content-Type and Content-Length
+	private final List<String> headers;
+	//heap or direct, never modified
+	private final ByteBuffer body;
+
+	CapturedResponse(int status, String contentType, List<String> headers, ByteBuffer body) {
+		this.status=status;
+		this.contentType=contentType;
+		this.headers=headers;
+		this.body=body;
+	}
+
+	int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return value of the first header with that name, or null
+	 */
+	String getHeader(String name) {
+		for(int i=0; i<headers.size(); i+=2) {
+			if(headers.get(i).equalsIgnoreCase(name)) {
+				return headers.get(i+1);
+			}
+		}
+		return null;
+	}
+
+	int getBodyLength() {
+		return body.remaining();
+	}
+
+	/**
+	 * @return approximate memory held by this response
+	 */
+	int getWeight() {
+		int weight=body.remaining()+64;
+		for(String header:headers) {
+			weight+=2*header.length();
+		}
+		return weight;
+	}
+
+	/**
+	 * @return the same response with its body moved out of the java heap
+	 */
+	CapturedResponse toDirect() {
+		if(body.isDirect()) {
+			return this;
+		}
+		ByteBuffer direct=ByteBuffer.allocateDirect(body.remaining());
+		direct.put(body.duplicate());
+		((Buffer)direct).flip();
+		return new CapturedResponse(status, contentType, headers, direct);
+	}
+
+	/**
+	 * Replays the response, or only its headers with 304 if the request's conditions show the client has it already
+	 */
+	void replay(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setStatus(status);
+		if(contentType!=null) {
+			response.setContentType(contentType);
+		}
+		String previous=null;
+		for(int i=0; i<headers.size(); i+=2) {
+			String name=headers.get(i);
+			//replace headers set by the dispatcher, but keep repeated ones
+			if(name.equalsIgnoreCase(previous)) {
+				response.addHeader(name, headers.get(i+1));
+			}else {
+				response.setHeader(name, headers.get(i+1));
+			}
+			previous=name;
+		}
+		if(status==HttpServletResponse.SC_OK&&ConditionalRequest.isNotModified(request, response, getHeader("ETag"), ConditionalRequest.parseDate(getHeader("Last-Modified")))) {
+			return;
+		}
+		response.setContentLength(body.remaining());
+		ServletOutputStream output=response.getOutputStream();
+		if(body.hasArray()) {
+			output.write(body.array(), body.arrayOffset()+body.position(), body.remaining());
+			return;
+		}
+		//ServletOutputStream only takes arrays
+		ByteBuffer source=body.duplicate();
+		ByteBuffer buffer=BufferPool.acquire();
+		try {
+			while(source.hasRemaining()) {
+				int n=Math.min(source.remaining(), buffer.capacity());
+				source.get(buffer.array(), 0, n);
+				output.write(buffer.array(), 0, n);
+			}
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+}
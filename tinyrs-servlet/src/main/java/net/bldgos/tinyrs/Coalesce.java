@@ -0,0 +1,24 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Coalesces identical concurrent GET requests of an idempotent resource method: while one request runs the method,
+ * requests with the same path, query, negotiated type and credentials wait for it and get a replay of its status,
+ * headers and body. Only successful responses without Set-Cookie and with a body of at most {@link #maxBytes()}
+ * are replayed, otherwise each waiting request runs the method itself. Range requests are never coalesced.
+ * Waiting requests are suspended with startAsync() if the servlet is declared with asyncSupported=true.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Coalesce {
+	/**
+	 * @return maximum size in bytes of a response body buffered to be replayed
+	 */
+	int maxBytes() default 4*1024*1024;
+}
@@ -0,0 +1,30 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Compresses the responses of a resource method, or of each resource method of a servlet class, with gzip or deflate
+ * as negotiated with request header Accept-Encoding, and adds Vary: Accept-Encoding. Only 200 responses of at least
+ * {@link #minBytes()} whose Content-Type is in {@link #types()} and which have no Content-Encoding yet are compressed,
+ * streaming as they are written. A strong ETag gets the coding appended, e.g. "abc-gzip", since the representation differs.
+ * Compressed files sent by {@link FileSender} are kept in a cache bounded to 16MiB, configurable with servlet init-param
+ * <code>net.bldgos.tinyrs.compression.variantCache.maxBytes</code>, so that each file version is compressed once.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Compress {
+	/**
+	 * @return media types worth compressing, type/* and type/*+suffix match any subtype, resp. any subtype with that suffix
+	 */
+	String[] types() default {"text/*", "application/json", "application/*+json", "application/xml", "application/*+xml", "application/javascript", "image/svg+xml"};
+
+	/**
+	 * @return smaller bodies are sent uncompressed, their overhead outweighs the savings
+	 */
+	int minBytes() default 1024;
+}
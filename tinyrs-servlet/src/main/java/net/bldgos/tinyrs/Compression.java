@@ -0,0 +1,69 @@
+package net.bldgos.tinyrs;
+
+import java.util.Locale;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * {@link Compress} settings of a resource method.
+ */
+final class Compression {
+	private final String[] types;
+	private final int minBytes;
+
+	Compression(String[] types, int minBytes) {
+		this.types=new String[types.length];
+		for(int i=0; i<types.length; i++) {
+			this.types[i]=types[i].trim().toLowerCase(Locale.ROOT);
+		}
+		this.minBytes=minBytes;
+	}
+
+	int getMinBytes() {
+		return minBytes;
+	}
+
+	/**
+	 * @param produceTypes of the resource method, null if it did not declare any
+	 * @return false if none of the produce types can be compressed
+	 */
+	boolean isApplicable(MediaType[] produceTypes) {
+		if(produceTypes==null) {
+			return true;
+		}
+		for(MediaType produceType:produceTypes) {
+			if(!ContentNegotiation.isConcrete(produceType)||isCompressible(produceType.getType()+"/"+produceType.getSubtype())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param contentType value of header Content-Type, may have parameters
+	 */
+	boolean isCompressible(String contentType) {
+		if(contentType==null) {
+			return false;
+		}
+		int semicolon=contentType.indexOf(';');
+		String mediaType=(semicolon==-1?contentType:contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+		int slash=mediaType.indexOf('/');
+		if(slash==-1) {
+			return false;
+		}
+		for(String type:types) {
+			if(type.equals(mediaType)||type.equals("*/*")) {
+				return true;
+			}
+			//type/* or type/*+suffix
+			if(type.length()>slash+1&&type.regionMatches(0, mediaType, 0, slash+1)&&type.charAt(slash+1)=='*') {
+				String suffix=type.substring(slash+2);
+				if(suffix.isEmpty()||mediaType.endsWith(suffix)&&mediaType.length()>slash+1+suffix.length()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
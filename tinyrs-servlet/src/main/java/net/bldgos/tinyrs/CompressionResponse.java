@@ -0,0 +1,355 @@
+package net.bldgos.tinyrs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Compresses the body of a {@link Compress} resource method with the negotiated content coding. The first
+ * minBytes of the body are held back to decide whether compressing is worth it, the rest is compressed as written.
+ */
+class CompressionResponse extends HttpServletResponseWrapper {
+	private static final String VARY="Accept-Encoding";
+	private static final int PENDING=0;
+	private static final int COMPRESSING=1;
+	private static final int IDENTITY=2;
+	//finished, or the body was replaced with a cached variant or an error page
+	private static final int DONE=3;
+	private final Compression compression;
+	private final String encoding;
+	//null if there is no cache
+	private final VariantCache variantCache;
+	private int state=PENDING;
+	private final byte[] pending;
+	private int pendingSize;
+	//Content-Length declared by the resource method, -1 if none
+	private long declaredLength=-1;
+	private OutputStream compressor;
+	//compressed bytes to be cached, null if not cacheable
+	private ByteArrayOutputStream variant;
+	private String variantETag;
+	private CompressionOutputStream output;
+	private PrintWriter writer;
+	//set while finish() flushes the writer, which must not be taken for a flush by the resource method
+	private boolean finishing;
+
+	CompressionResponse(HttpServletResponse response, Compression compression, String encoding, VariantCache variantCache) {
+		super(response);
+		this.compression=compression;
+		this.encoding=encoding;
+		this.variantCache=variantCache;
+		this.pending=new byte[compression.getMinBytes()];
+		addHeader("Vary", VARY);
+	}
+
+	/**
+	 * Sends the cached compressed variant of an entity with a strong ETag, if any, instead of the body the caller would write.
+	 * @param response as passed to the resource method
+	 * @param contentType of the entity
+	 * @return true if the variant has been sent and the caller must not write the body
+	 */
+	static boolean sendVariant(HttpServletResponse response, String etag, String contentType) throws IOException {
+		ServletResponse r=response;
+		while(r instanceof HttpServletResponseWrapper&&!(r instanceof CompressionResponse)) {
+			r=((HttpServletResponseWrapper)r).getResponse();
+		}
+		if(!(r instanceof CompressionResponse)) {
+			return false;
+		}
+		CompressionResponse compressionResponse=(CompressionResponse)r;
+		if(compressionResponse.variantCache==null||compressionResponse.state!=PENDING||compressionResponse.pendingSize>0
+				||compressionResponse.getStatus()!=HttpServletResponse.SC_OK||!compressionResponse.compression.isCompressible(contentType)) {
+			return false;
+		}
+		byte[] cached=compressionResponse.variantCache.get(etag, compressionResponse.encoding);
+		if(cached==null) {
+			return false;
+		}
+		compressionResponse.state=DONE;
+		compressionResponse.setHeader("Content-Encoding", compressionResponse.encoding);
+		compressionResponse.setHeader("ETag", withCoding(etag, compressionResponse.encoding));
+		compressionResponse.getResponse().setContentLength(cached.length);
+		compressionResponse.getResponse().getOutputStream().write(cached);
+		return true;
+	}
+
+	private static String withCoding(String etag, String encoding) {
+		return etag.substring(0, etag.length()-1)+"-"+encoding+"\"";
+	}
+
+	/**
+	 * Decides how to send the body once the pending bytes are not enough to hold it, or the body is complete
+	 */
+	private void decide(boolean complete) throws IOException {
+		boolean compress=getStatus()==HttpServletResponse.SC_OK&&getHeader("Content-Encoding")==null&&getHeader("Content-Range")==null
+				&&compression.isCompressible(getContentType())
+				&&(complete?pendingSize>=compression.getMinBytes():declaredLength<0||declaredLength>=compression.getMinBytes());
+		ServletOutputStream out=super.getOutputStream();
+		if(!compress) {
+			state=IDENTITY;
+			if(declaredLength>=0) {
+				super.setContentLengthLong(declaredLength);
+			}else if(complete&&(pendingSize>0||getStatus()==HttpServletResponse.SC_OK)) {
+				super.setContentLength(pendingSize);
+			}
+			out.write(pending, 0, pendingSize);
+			return;
+		}
+		state=COMPRESSING;
+		setHeader("Content-Encoding", encoding);
+		String etag=getHeader("ETag");
+		if(etag!=null&&etag.endsWith("\"")&&!etag.startsWith("W/")) {
+			setHeader("ETag", withCoding(etag, encoding));
+			if(variantCache!=null) {
+				variantETag=etag;
+				variant=new ByteArrayOutputStream();
+			}
+		}
+		OutputStream sink=new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte)b}, 0, 1);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				if(variant!=null) {
+					if(variant.size()+len>variantCache.getMaxEntryBytes()) {
+						variant=null;
+					}else {
+						variant.write(b, off, len);
+					}
+				}
+			}
+			@Override
+			public void flush() throws IOException {
+				out.flush();
+			}
+			//the servlet output stream is closed by the container
+			@Override
+			public void close() throws IOException {
+			}
+		};
+		//sync flush, so that a flush by the resource method reaches the client
+		compressor=encoding.equals("gzip")?new GZIPOutputStream(sink, BufferPool.BUFFER_SIZE, true):new DeflaterOutputStream(sink, true);
+		compressor.write(pending, 0, pendingSize);
+	}
+
+	/**
+	 * Completes the body once the resource method is done
+	 */
+	void finish() throws IOException {
+		if(writer!=null) {
+			finishing=true;
+			writer.flush();
+		}
+		if(state==PENDING&&!isCommitted()) {
+			decide(true);
+		}
+		if(state==COMPRESSING) {
+			compressor.close();
+			if(variant!=null) {
+				variantCache.put(variantETag, encoding, variant.toByteArray());
+			}
+		}
+		state=DONE;
+	}
+
+	private void write(byte[] b, int off, int len) throws IOException {
+		switch(state) {
+		case PENDING:
+			if(pendingSize+len<=pending.length) {
+				System.arraycopy(b, off, pending, pendingSize, len);
+				pendingSize+=len;
+				return;
+			}
+			decide(false);
+			write(b, off, len);
+			return;
+		case COMPRESSING:
+			compressor.write(b, off, len);
+			return;
+		case IDENTITY:
+			super.getOutputStream().write(b, off, len);
+			return;
+		default:
+			//a cached variant has been sent instead
+		}
+	}
+
+	private void flush() throws IOException {
+		if(finishing) {
+			return;
+		}
+		if(state==PENDING) {
+			decide(false);
+		}
+		if(state==COMPRESSING) {
+			compressor.flush();
+		}else if(state==IDENTITY) {
+			super.getOutputStream().flush();
+		}
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		setContentLengthLong(len);
+	}
+
+	@Override
+	public void setContentLengthLong(long len) {
+		if(state==PENDING) {
+			declaredLength=len;
+		}else if(state==IDENTITY) {
+			super.setContentLengthLong(len);
+		}
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		if(name.equalsIgnoreCase("Content-Length")) {
+			setContentLengthLong(Long.parseLong(value.trim()));
+		}else if(name.equalsIgnoreCase("Vary")) {
+			super.setHeader(name, value.contains("*")||value.toLowerCase().contains("accept-encoding")?value:value+", "+VARY);
+		}else {
+			super.setHeader(name, value);
+		}
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		if(name.equalsIgnoreCase("Content-Length")) {
+			setContentLengthLong(Long.parseLong(value.trim()));
+		}else {
+			super.addHeader(name, value);
+		}
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		if(name.equalsIgnoreCase("Content-Length")) {
+			setContentLengthLong(value);
+		}else {
+			super.setIntHeader(name, value);
+		}
+	}
+
+	@Override
+	public void sendError(int sc, String msg) throws IOException {
+		state=DONE;
+		super.sendError(sc, msg);
+	}
+
+	@Override
+	public void sendError(int sc) throws IOException {
+		state=DONE;
+		super.sendError(sc);
+	}
+
+	@Override
+	public void sendRedirect(String location) throws IOException {
+		state=DONE;
+		super.sendRedirect(location);
+	}
+
+	@Override
+	public void resetBuffer() {
+		super.resetBuffer();
+		if(state==PENDING) {
+			pendingSize=0;
+		}
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		if(state==PENDING) {
+			pendingSize=0;
+			declaredLength=-1;
+			addHeader("Vary", VARY);
+		}
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		if(writer!=null) {
+			writer.flush();
+		}
+		flush();
+		super.flushBuffer();
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if(writer!=null) {
+			throw new IllegalStateException("getWriter() has already been called for this response");
+		}
+		if(output==null) {
+			output=new CompressionOutputStream();
+		}
+		return output;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws UnsupportedEncodingException {
+		if(writer==null) {
+			if(output!=null) {
+				throw new IllegalStateException("getOutputStream() has already been called for this response");
+			}
+			//the wrapped response does not know a writer is used, make the charset part of Content-Type explicitly
+			String characterEncoding=getCharacterEncoding();
+			setCharacterEncoding(characterEncoding);
+			output=new CompressionOutputStream();
+			writer=new PrintWriter(new OutputStreamWriter(output, characterEncoding));
+		}
+		return writer;
+	}
+
+	private class CompressionOutputStream extends ServletOutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			CompressionResponse.this.write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			CompressionResponse.this.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			CompressionResponse.this.flush();
+		}
+
+		//the body is completed by finish()
+		@Override
+		public void close() throws IOException {
+		}
+
+		@Override
+		public boolean isReady() {
+			try {
+				return state==PENDING||CompressionResponse.super.getOutputStream().isReady();
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			throw new IllegalStateException("non-blocking writes are not supported by @Compress resource methods");
+		}
+	}
+}
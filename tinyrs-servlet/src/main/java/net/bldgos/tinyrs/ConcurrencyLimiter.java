@@ -0,0 +1,120 @@
+package net.bldgos.tinyrs;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * Lock-free permit counter enforcing the {@link Bulkhead} or {@link AdaptiveLimit} of a resource method.
+ */
+class ConcurrencyLimiter {
+	private final AtomicInteger inFlight=new AtomicInteger();
+	private final LongAdder rejections=new LongAdder();
+	private final int retryAfter;
+	private volatile int limit;
+
+	ConcurrencyLimiter(int limit, int retryAfter) {
+		this.limit=limit;
+		this.retryAfter=retryAfter;
+	}
+
+	/**
+	 * @return a permit to release once the request is done, or null if the limit is reached
+	 */
+	Permit tryAcquire() {
+		while(true) {
+			int n=inFlight.get();
+			if(n>=limit) {
+				rejections.increment();
+				return null;
+			}
+			if(inFlight.compareAndSet(n, n+1)) {
+				return new Permit(n+1);
+			}
+		}
+	}
+
+	int getLimit() {
+		return limit;
+	}
+
+	void setLimit(int limit) {
+		this.limit=limit;
+	}
+
+	boolean isAdaptive() {
+		return false;
+	}
+
+	/**
+	 * Called when a request is done.
+	 * @param rtt nanoseconds from acquiring to releasing the permit
+	 * @param inFlight number of requests in flight when the permit was acquired, including this one
+	 * @param dropped true if the request failed or timed out
+	 */
+	void onSample(long rtt, int inFlight, boolean dropped) {
+	}
+
+	int getInFlight() {
+		return inFlight.get();
+	}
+
+	long getRejections() {
+		return rejections.sum();
+	}
+
+	int getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * Released once, either directly or by the AsyncContext of the request completing.
+	 */
+	class Permit implements AsyncListener {
+		private final AtomicBoolean released=new AtomicBoolean();
+		private final long startTime=System.nanoTime();
+		private final int inFlightAtStart;
+		private volatile boolean dropped;
+
+		Permit(int inFlightAtStart) {
+			this.inFlightAtStart=inFlightAtStart;
+		}
+
+		void release() {
+			if(released.compareAndSet(false, true)) {
+				inFlight.decrementAndGet();
+				onSample(System.nanoTime()-startTime, inFlightAtStart, dropped);
+			}
+		}
+
+		/**
+		 * Releases the permit of a failed request
+		 */
+		void drop() {
+			dropped=true;
+			release();
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			release();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			dropped=true;
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			drop();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+}
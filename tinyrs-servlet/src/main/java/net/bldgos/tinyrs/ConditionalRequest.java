@@ -0,0 +1,136 @@
+package net.bldgos.tinyrs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Evaluates If-None-Match and If-Modified-Since (RFC 7232) of GET and HEAD requests, so that a client
+ * whose copy is still current gets 304 Not Modified without a body. Resource methods able to compute
+ * a validator cheaply should call {@link #isNotModified(HttpServletRequest, HttpServletResponse, String, long)}
+ * before doing any other work; {@link FileSender} does so for files.
+ */
+public final class ConditionalRequest {
+
+	private ConditionalRequest() {
+	}
+
+	/**
+	 * @return a strong ETag of the file from its size, modification time and inode, which changes whenever the file is modified or replaced
+	 */
+	public static String fileETag(File file) throws IOException {
+		return fileETag(Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+	}
+
+	static String fileETag(BasicFileAttributes attributes) {
+		StringBuilder etag=new StringBuilder().append('"').append(Long.toHexString(attributes.size()))
+				.append('-').append(Long.toHexString(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)));
+		//device and inode on unix-like systems
+		Object fileKey=attributes.fileKey();
+		if(fileKey!=null) {
+			etag.append('-').append(Integer.toHexString(fileKey.hashCode()));
+		}
+		return etag.append('"').toString();
+	}
+
+	/**
+	 * @return a weak ETag from a hash of the entity bytes
+	 */
+	public static String weakETag(byte[] b, int off, int len) {
+		CRC32 crc=new CRC32();
+		crc.update(b, off, len);
+		Adler32 adler=new Adler32();
+		adler.update(b, off, len);
+		return "W/\""+Integer.toHexString(len)+"-"+Long.toHexString(crc.getValue()<<32|adler.getValue())+"\"";
+	}
+
+	/**
+	 * Sets response headers ETag and Last-Modified, then checks whether the client already has the current representation.
+	 * If-None-Match takes precedence over If-Modified-Since. Only GET and HEAD requests get 304.
+	 * @param etag entity tag including quotes and weakness prefix, null if unknown
+	 * @param lastModified milliseconds since the epoch, -1 if unknown
+	 * @return true if 304 has been set and no body must be written
+	 */
+	public static boolean isNotModified(HttpServletRequest request, HttpServletResponse response, String etag, long lastModified) {
+		if(etag!=null) {
+			response.setHeader("ETag", etag);
+		}
+		if(lastModified>=0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+		String method=request.getMethod();
+		if(!"GET".equals(method)&&!"HEAD".equals(method)) {
+			return false;
+		}
+		boolean notModified;
+		String ifNoneMatch=request.getHeader("If-None-Match");
+		if(ifNoneMatch!=null) {
+			notModified=etag!=null&&matches(ifNoneMatch, etag, false);
+		}else {
+			long ifModifiedSince=parseDate(request.getHeader("If-Modified-Since"));
+			notModified=lastModified>=0&&ifModifiedSince!=-1&&lastModified/1000<=ifModifiedSince/1000;
+		}
+		if(notModified) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		}
+		return notModified;
+	}
+
+	/**
+	 * @param header comma separated entity tags, or *
+	 * @param strong true for the strong comparison required by If-Range and If-Match, false for the weak one of If-None-Match
+	 */
+	static boolean matches(String header, String etag, boolean strong) {
+		if(strong&&etag.startsWith("W/")) {
+			return false;
+		}
+		String opaque=etag.startsWith("W/")?etag.substring(2):etag;
+		for(String candidate:header.split(",")) {
+			candidate=candidate.trim();
+			if(candidate.equals("*")) {
+				return true;
+			}
+			if(candidate.startsWith("W/")) {
+				if(strong) {
+					continue;
+				}
+				candidate=candidate.substring(2);
+			}
+			if(candidate.equals(opaque)) {
+				return true;
+			}
+			//tag of a variant compressed by the dispatcher, e.g. "abc-gzip" for "abc"
+			if(!strong&&opaque.endsWith("\"")) {
+				String unquoted=opaque.substring(0, opaque.length()-1);
+				if(candidate.equals(unquoted+"-gzip\"")||candidate.equals(unquoted+"-deflate\"")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return milliseconds since the epoch of an HTTP-date, -1 if absent or malformed
+	 */
+	static long parseDate(String value) {
+		if(value==null) {
+			return -1;
+		}
+		try {
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+}
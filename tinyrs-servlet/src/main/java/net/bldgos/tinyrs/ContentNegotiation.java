@@ -0,0 +1,227 @@
+package net.bldgos.tinyrs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Selects the response media type of a route from its @Produces types and the Accept header of a request,
+ * ranking candidates by quality value and specificity as described in RFC 7231 section 5.3.2.
+ */
+final class ContentNegotiation {
+	/**
+	 * Negotiation outcome of an Accept header no produce type is acceptable for
+	 */
+	static final MediaType NOT_ACCEPTABLE=new MediaType("*", "*");
+	private static final String QUALITY_PARAMETER="q";
+	private static final String[] ACCEPT_ANY={MediaType.WILDCARD};
+
+	private ContentNegotiation() {
+	}
+
+	/**
+	 * Parses @Produces or @Consumes values, each of which may be a comma separated list,
+	 * and sorts them from the most specific to the least specific, keeping declaration order otherwise.
+	 */
+	static MediaType[] parseMediaTypes(String[] values) {
+		List<MediaType> mediaTypes=new ArrayList<>();
+		for(String value:values) {
+			for(String type:splitList(value)) {
+				mediaTypes.add(MediaType.valueOf(type));
+			}
+		}
+		mediaTypes.sort((a, b)->specificity(b)-specificity(a));
+		return mediaTypes.toArray(new MediaType[mediaTypes.size()]);
+	}
+
+	/**
+	 * @param produceTypes sorted by {@link #parseMediaTypes(String[])}
+	 * @param accept value of request header Accept, null means any media type is acceptable
+	 * @return the produce type to respond with, or {@link #NOT_ACCEPTABLE}
+	 */
+	static MediaType select(MediaType[] produceTypes, String accept) {
+		String[] values=accept==null?ACCEPT_ANY:splitList(accept);
+		MediaType[] ranges=new MediaType[values.length];
+		float[] qualities=new float[values.length];
+		for(int i=0; i<values.length; i++) {
+			try {
+				ranges[i]=MediaType.valueOf(values[i]);
+				qualities[i]=quality(ranges[i]);
+			} catch (IllegalArgumentException e) {//ignore malformed media range
+				ranges[i]=NOT_ACCEPTABLE;
+				qualities[i]=0f;
+			}
+		}
+		MediaType best=NOT_ACCEPTABLE;
+		float bestQuality=0f;
+		int bestSpecificity=-1;
+		for(MediaType produceType:produceTypes) {
+			boolean wildcard=produceType.isWildcardType()||produceType.isWildcardSubtype();
+			int rangeIndex=-1;
+			int rangeSpecificity=-1;
+			for(int i=0; i<ranges.length; i++) {
+				if(!matches(ranges[i], produceType)) {
+					continue;
+				}
+				int specificity=specificity(ranges[i]);
+				//a concrete type takes the quality of the most specific range matching it,
+				//a wildcard type can be narrowed down to whichever range is preferred most
+				boolean better=wildcard?
+						rangeIndex==-1||qualities[i]>qualities[rangeIndex]||(qualities[i]==qualities[rangeIndex]&&specificity>rangeSpecificity):
+						specificity>rangeSpecificity;
+				if(better) {
+					rangeIndex=i;
+					rangeSpecificity=specificity;
+				}
+			}
+			if(rangeIndex==-1) {
+				continue;
+			}
+			float quality=qualities[rangeIndex];
+			if(quality>bestQuality||(quality==bestQuality&&rangeSpecificity>bestSpecificity)) {
+				MediaType range=ranges[rangeIndex];
+				best=wildcard&&specificity(range)>specificity(produceType)?MediaType.valueOf(range.getType()+'/'+range.getSubtype()):produceType;
+				bestQuality=quality;
+				bestSpecificity=rangeSpecificity;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Selects a content coding the dispatcher can apply from request header Accept-Encoding (RFC 7231 section 5.3.4),
+	 * gzip being preferred over deflate at equal quality.
+	 * @return "gzip", "deflate" or null for identity
+	 */
+	static String selectEncoding(String acceptEncoding) {
+		if(acceptEncoding==null) {
+			return null;
+		}
+		float gzip=-1f;
+		float deflate=-1f;
+		float any=-1f;
+		for(String item:splitList(acceptEncoding)) {
+			int semicolon=item.indexOf(';');
+			String coding=(semicolon==-1?item:item.substring(0, semicolon)).trim();
+			float quality=1f;
+			if(semicolon!=-1) {
+				String parameter=item.substring(semicolon+1).trim();
+				if(parameter.regionMatches(true, 0, "q=", 0, 2)) {
+					try {
+						quality=Float.parseFloat(parameter.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality=0f;
+					}
+				}
+			}
+			if(coding.equalsIgnoreCase("gzip")||coding.equalsIgnoreCase("x-gzip")) {
+				gzip=Math.max(gzip, quality);
+			}else if(coding.equalsIgnoreCase("deflate")) {
+				deflate=quality;
+			}else if(coding.equals("*")) {
+				any=quality;
+			}
+		}
+		//codings not listed take the quality of *
+		gzip=gzip<0f?any:gzip;
+		deflate=deflate<0f?any:deflate;
+		if(gzip>0f&&gzip>=deflate) {
+			return "gzip";
+		}
+		return deflate>0f?"deflate":null;
+	}
+
+	/**
+	 * @return true for the concrete type application/json or any +json type
+	 */
+	static boolean isJson(MediaType mediaType) {
+		return mediaType.getType().equals("application")&&(mediaType.getSubtype().equals("json")||mediaType.getSubtype().endsWith("+json"));
+	}
+
+	static boolean isConcrete(MediaType mediaType) {
+		return !mediaType.isWildcardType()&&!mediaType.isWildcardSubtype();
+	}
+
+	private static boolean matches(MediaType range, MediaType mediaType) {
+		if(!range.isCompatible(mediaType)) {
+			return false;
+		}
+		for(Map.Entry<String,String> e:range.getParameters().entrySet()) {
+			if(e.getKey().equals(QUALITY_PARAMETER)) {
+				continue;
+			}
+			if(!e.getValue().equalsIgnoreCase(mediaType.getParameters().get(e.getKey()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return 0 for *&#47;*, 1 for type/*, 2 for type/subtype and 3 for type/subtype with parameters
+	 */
+	private static int specificity(MediaType mediaType) {
+		if(mediaType.isWildcardType()) {
+			return 0;
+		}
+		if(mediaType.isWildcardSubtype()) {
+			return 1;
+		}
+		Map<String,String> parameters=mediaType.getParameters();
+		int size=parameters.size();
+		if(size>0&&parameters.containsKey(QUALITY_PARAMETER)) {
+			size--;
+		}
+		return size>0?3:2;
+	}
+
+	private static float quality(MediaType range) {
+		String q=range.getParameters().get(QUALITY_PARAMETER);
+		if(q==null) {
+			return 1f;
+		}
+		try {
+			float quality=Float.parseFloat(q);
+			return quality<0f||quality>1f?1f:quality;
+		} catch (NumberFormatException e) {
+			return 1f;
+		}
+	}
+
+	/**
+	 * Splits a comma separated header value, commas inside quoted strings do not separate items.
+	 */
+	private static String[] splitList(String list) {
+		List<String> items=new ArrayList<>();
+		int length=list.length();
+		int start=0;
+		boolean quoted=false;
+		for(int i=0; i<=length; i++) {
+			char c=i<length?list.charAt(i):',';
+			if(quoted) {
+				if(c=='\\') {
+					i++;
+				}else if(c=='"') {
+					quoted=false;
+				}
+			}else if(c=='"') {
+				quoted=true;
+			}else if(c==',') {
+				String item=list.substring(start, i).trim();
+				if(!item.isEmpty()) {
+					items.add(item);
+				}
+				start=i+1;
+			}
+		}
+		if(quoted) {//unterminated quoted string
+			String item=list.substring(start).trim();
+			if(!item.isEmpty()) {
+				items.add(item);
+			}
+		}
+		return items.toArray(new String[items.size()]);
+	}
+}
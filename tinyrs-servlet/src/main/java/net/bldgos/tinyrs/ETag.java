@@ -0,0 +1,24 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Buffers the response of a @GET resource method to tag it with a weak ETag hashed from the body, unless the method
+ * set an ETag itself, and answers 304 Not Modified instead of the body if request header If-None-Match matches.
+ * The method still runs for every request, if its validator can be computed up front it should rather call
+ * {@link ConditionalRequest#isNotModified(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, String, long)}.
+ * A body larger than {@link #maxBytes()}, or flushed by the method, is streamed untagged.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ETag {
+	/**
+	 * @return maximum size in bytes of a buffered response body
+	 */
+	int maxBytes() default 1024*1024;
+}
@@ -0,0 +1,178 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Holds back the body of an {@link ETag} resource method until it is complete, so that its hash can be sent
+ * as ETag ahead of it, or the body replaced with 304.
+ */
+class ETagResponse extends HttpServletResponseWrapper {
+	private final int maxBytes;
+	//false if a response capture above shares this response with requests having other conditions
+	private final boolean evaluate;
+	private BufferOutputStream output;
+	private PrintWriter writer;
+	//null once streaming through
+	private byte[] body=new byte[0];
+	private int size;
+
+	ETagResponse(HttpServletResponse response, int maxBytes, boolean evaluate) {
+		super(response);
+		this.maxBytes=maxBytes;
+		this.evaluate=evaluate;
+	}
+
+	/**
+	 * Sends the buffered body, or 304, once the resource method is done
+	 */
+	void finish(HttpServletRequest request) throws IOException {
+		if(writer!=null) {
+			writer.flush();
+		}
+		if(body==null||isCommitted()) {
+			return;
+		}
+		byte[] buffered=body;
+		body=null;
+		if(getStatus()==HttpServletResponse.SC_OK) {
+			String etag=getHeader("ETag");
+			if(etag==null) {
+				etag=ConditionalRequest.weakETag(buffered, 0, size);
+			}
+			if(evaluate&&ConditionalRequest.isNotModified(request, this, etag, -1)) {
+				return;
+			}
+			setHeader("ETag", etag);
+		}
+		super.setContentLength(size);
+		if(size>0) {
+			super.getOutputStream().write(buffered, 0, size);
+		}
+	}
+
+	/**
+	 * Gives up the ETag and writes the buffered body through
+	 */
+	private void streamThrough() throws IOException {
+		if(body!=null) {
+			byte[] buffered=body;
+			body=null;
+			super.getOutputStream().write(buffered, 0, size);
+		}
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if(writer!=null) {
+			throw new IllegalStateException("getWriter() has already been called for this response");
+		}
+		if(output==null) {
+			output=new BufferOutputStream();
+		}
+		return output;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws UnsupportedEncodingException {
+		if(writer==null) {
+			if(output!=null) {
+				throw new IllegalStateException("getOutputStream() has already been called for this response");
+			}
+			//the wrapped response does not know a writer is used, make the charset part of Content-Type explicitly
+			String encoding=getCharacterEncoding();
+			setCharacterEncoding(encoding);
+			output=new BufferOutputStream();
+			writer=new PrintWriter(new OutputStreamWriter(output, encoding));
+		}
+		return writer;
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		if(writer!=null) {
+			writer.flush();
+		}
+		streamThrough();
+		super.flushBuffer();
+	}
+
+	@Override
+	public void resetBuffer() {
+		super.resetBuffer();
+		if(body!=null) {
+			size=0;
+		}
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		if(body!=null) {
+			size=0;
+		}
+	}
+
+	private class BufferOutputStream extends ServletOutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(body!=null&&size+len>maxBytes) {
+				streamThrough();
+			}
+			if(body==null) {
+				ETagResponse.super.getOutputStream().write(b, off, len);
+				return;
+			}
+			if(size+len>body.length) {
+				body=Arrays.copyOf(body, Math.min(maxBytes, Math.max(size+len, Math.max(256, 2*body.length))));
+			}
+			System.arraycopy(b, off, body, size, len);
+			size+=len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			//buffered until finished, unless streaming through
+			if(body==null) {
+				ETagResponse.super.getOutputStream().flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(body==null) {
+				ETagResponse.super.getOutputStream().close();
+			}
+		}
+
+		//buffering never blocks
+		@Override
+		public boolean isReady() {
+			try {
+				return body!=null||ETagResponse.super.getOutputStream().isReady();
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			throw new IllegalStateException("non-blocking writes are not supported by @ETag resource methods");
+		}
+	}
+}
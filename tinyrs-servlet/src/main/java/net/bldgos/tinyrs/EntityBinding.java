@@ -0,0 +1,150 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Binds the entity parameter of a resource method by reading the request body with the {@link EntityReader}
+ * of the request Content-Type, within the {@link MaxEntitySize} of the resource method.
+ */
+final class EntityBinding {
+	private static final MethodHandle READ;
+	static {
+		try {
+			READ=MethodHandles.lookup().findVirtual(EntityBinding.class, "read", MethodType.methodType(Object.class, HttpServletRequest.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	private final Class<?> type;
+	private final Type genericType;
+	private final MediaType[] consumeTypes;
+	//indexed like consumeTypes
+	private final EntityReader[] readers;
+	//all readers of the servlet, for a request type narrowing down a wildcard consume type
+	private final List<EntityReader> candidates;
+	private final long maxSize;
+
+	EntityBinding(Class<?> type, Type genericType, MediaType[] consumeTypes, EntityReader[] readers, List<EntityReader> candidates, long maxSize) {
+		this.type=type;
+		this.genericType=genericType;
+		this.consumeTypes=consumeTypes;
+		this.readers=readers;
+		this.candidates=candidates;
+		this.maxSize=maxSize;
+	}
+
+	/**
+	 * @return binder of type (HttpServletRequest) returning the entity parameter type
+	 */
+	MethodHandle binder() {
+		return READ.bindTo(this).asType(MethodType.methodType(type, HttpServletRequest.class));
+	}
+
+	Object read(HttpServletRequest request) throws IOException, ServletException {
+		if(request.getContentLengthLong()>maxSize) {
+			throw new BindingException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "entity exceeds "+maxSize+" bytes");
+		}
+		MediaType mediaType;
+		try {
+			mediaType=request.getContentType()==null?MediaType.WILDCARD_TYPE:MediaType.valueOf(request.getContentType());
+		} catch (IllegalArgumentException e) {
+			throw new BindingException(HttpServletResponse.SC_BAD_REQUEST, "malformed Content-Type", e);
+		}
+		EntityReader reader=null;
+		for(int i=0; i<consumeTypes.length; i++) {
+			if(consumeTypes[i].isCompatible(mediaType)) {
+				reader=readers[i];
+				if(!ContentNegotiation.isConcrete(consumeTypes[i])&&ContentNegotiation.isConcrete(mediaType)) {
+					reader=select(mediaType);
+				}
+				break;
+			}
+		}
+		if(reader==null) {
+			throw new BindingException(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "cannot read entity from "+mediaType);
+		}
+		LimitedInputStream input=new LimitedInputStream(request.getInputStream(), maxSize);
+		try {
+			return reader.read(type, genericType, mediaType, input);
+		} catch (IOException|ServletException e) {
+			//the reader may have wrapped the failure of the input
+			if(input.isExceeded()) {
+				throw new BindingException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "entity exceeds "+maxSize+" bytes", e);
+			}
+			throw e;
+		}
+	}
+
+	private EntityReader select(MediaType mediaType) {
+		for(EntityReader candidate:candidates) {
+			if(candidate.isReadable(type, genericType, mediaType)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Fails as soon as more than the limit is read, e.g. of a chunked body without Content-Length
+	 */
+	private static class LimitedInputStream extends InputStream {
+		private final InputStream input;
+		private long remaining;
+
+		LimitedInputStream(InputStream input, long limit) {
+			this.input=input;
+			this.remaining=limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b=input.read();
+			if(b!=-1) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			//read one byte beyond the limit to tell a body of exactly the limit from a larger one
+			int n=input.read(b, off, (int)Math.min(len, remaining+1));
+			if(n>0) {
+				count(n);
+			}
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return input.available();
+		}
+
+		//the request input stream is closed by the container
+		@Override
+		public void close() {
+		}
+
+		boolean isExceeded() {
+			return remaining<0;
+		}
+
+		private void count(int n) throws IOException {
+			remaining-=n;
+			if(remaining<0) {
+				throw new IOException("entity too large");
+			}
+		}
+	}
+}
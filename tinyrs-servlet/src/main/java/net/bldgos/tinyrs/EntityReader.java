@@ -0,0 +1,33 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+
+import javax.servlet.ServletException;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Reads the request body into the entity parameter of a resource method, the parameter following
+ * (HttpServletRequest,HttpServletResponse) without a binding annotation. A reader is chosen per resource method and
+ * consume type at init() from {@link TinyrsDispatcherServlet#createEntityReaders()}, the first one accepting the
+ * parameter type wins. Implementations must be thread safe.
+ */
+public interface EntityReader {
+	/**
+	 * Called at init(), so that a reader may prepare what it needs for the type.
+	 * @param type declared type of the entity parameter
+	 * @param genericType declared type of the entity parameter with its type arguments
+	 * @param mediaType consume type, {@link MediaType#WILDCARD_TYPE} if the resource method has no @Consumes
+	 * @return true if this reader can read entities of the type from the media type
+	 */
+	boolean isReadable(Class<?> type, Type genericType, MediaType mediaType);
+
+	/**
+	 * Reads the entity incrementally from the input, which fails with an IOException once the body exceeds the
+	 * {@link MaxEntitySize} of the resource method and must not be closed.
+	 * @param mediaType of the request, {@link MediaType#WILDCARD_TYPE} if it has no Content-Type
+	 * @throws BindingException with status 400 if the body is malformed
+	 */
+	Object read(Class<?> type, Type genericType, MediaType mediaType, InputStream input) throws IOException, ServletException;
+}
@@ -0,0 +1,31 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Writes what a resource method returns, or what the CompletionStage it returns completes with, as the response body.
+ * A writer is chosen per resource method and produce type at init() from {@link TinyrsDispatcherServlet#createEntityWriters()},
+ * the first one accepting the entity type wins. Implementations must be thread safe.
+ */
+public interface EntityWriter {
+	/**
+	 * @param type declared entity type of the resource method
+	 * @param genericType declared entity type with its type arguments
+	 * @param mediaType produce type, {@link MediaType#WILDCARD_TYPE} if the resource method has no @Produces
+	 * @return true if this writer can write entities of the type as the media type
+	 */
+	boolean isWriteable(Class<?> type, Type genericType, MediaType mediaType);
+
+	/**
+	 * Writes the entity to the response output stream, without closing it. Content-Type has already been set
+	 * if a concrete type was negotiated, otherwise the writer should set it.
+	 * @param entity never null
+	 * @param genericType declared entity type with its type arguments
+	 * @param mediaType negotiated media type, {@link MediaType#WILDCARD_TYPE} if the resource method has no @Produces
+	 */
+	void write(Object entity, Type genericType, MediaType mediaType, HttpServletResponse response) throws IOException;
+}
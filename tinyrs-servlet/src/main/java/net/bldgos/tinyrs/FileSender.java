@@ -0,0 +1,286 @@
+package net.bldgos.tinyrs;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Sends a file as response entity, honoring conditional requests (RFC 7232) with a strong ETag computed from
+ * the file attributes, and Range and If-Range request headers (RFC 7233).
+ * A single range is answered with 206 and Content-Range, several ranges with 206 and multipart/byteranges,
+ * and ranges not overlapping the file with 416.
+ * On containers supporting sendfile (e.g. Tomcat with NIO/NIO2/APR connectors) the file is handed to the
+ * connector, which transfers it from the page cache to the socket without copying through the JVM heap.
+ * Otherwise the file is copied with positional reads through pooled buffers.
+ */
+public final class FileSender {
+	private static final String SENDFILE_SUPPORT_ATTRIBUTE="org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME_ATTRIBUTE="org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START_ATTRIBUTE="org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END_ATTRIBUTE="org.apache.tomcat.sendfile.end";
+	private static final String DEFAULT_CONTENT_TYPE="application/octet-stream";
+	//more ranges than this are not worth a multipart response, the whole file is sent instead
+	private static final int MAX_RANGES=32;
+
+	private FileSender() {
+	}
+
+	/**
+	 * Same as {@link #send(HttpServletRequest, HttpServletResponse, File, String)} keeping the content type
+	 * already set on the response, application/octet-stream if there is none.
+	 */
+	public static void send(HttpServletRequest request, HttpServletResponse response, File file) throws IOException {
+		send(request, response, file, null);
+	}
+
+	/**
+	 * Sends the file, or the requested ranges of it, and sets Accept-Ranges, ETag, Last-Modified, Content-Type and Content-Length.
+	 * Responds 404 if the file does not exist, and 304 without reading the file if the client's copy is current.
+	 * The body is omitted for HEAD requests.
+	 * @param contentType media type of the file, null to keep the one already set on the response
+	 */
+	public static void send(HttpServletRequest request, HttpServletResponse response, File file, String contentType) throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes=Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			attributes=null;
+		}
+		if(attributes==null||!attributes.isRegularFile()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		long length=attributes.size();
+		long lastModified=attributes.lastModifiedTime().toMillis();
+		String etag=ConditionalRequest.fileETag(attributes);
+		if(contentType==null) {
+			contentType=response.getContentType()!=null?response.getContentType():DEFAULT_CONTENT_TYPE;
+		}
+		response.setHeader("Accept-Ranges", "bytes");
+		if(ConditionalRequest.isNotModified(request, response, etag, lastModified)) {
+			return;
+		}
+		boolean head="HEAD".equals(request.getMethod());
+		List<long[]> ranges=null;
+		if(head||"GET".equals(request.getMethod())) {
+			String range=request.getHeader("Range");
+			if(range!=null&&isRangeApplicable(request, etag, lastModified)) {
+				ranges=parseRanges(range, length);
+			}
+		}
+		if(ranges!=null&&ranges.isEmpty()) {
+			response.setHeader("Content-Range", "bytes */"+length);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+		if(ranges==null||ranges.size()>MAX_RANGES) {
+			response.setContentType(contentType);
+			if(!head&&CompressionResponse.sendVariant(response, etag, contentType)) {//compressed already
+				return;
+			}
+			response.setContentLengthLong(length);
+			if(!head) {
+				sendRange(request, response, file, 0, length);
+			}
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		if(ranges.size()==1) {
+			long[] range=ranges.get(0);
+			response.setContentType(contentType);
+			response.setContentLengthLong(range[1]-range[0]);
+			response.setHeader("Content-Range", "bytes "+range[0]+"-"+(range[1]-1)+"/"+length);
+			if(!head) {
+				sendRange(request, response, file, range[0], range[1]);
+			}
+			return;
+		}
+		String boundary=UUID.randomUUID().toString().replace("-", "");
+		byte[][] partHeaders=new byte[ranges.size()][];
+		byte[] closeDelimiter=("\r\n--"+boundary+"--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		long contentLength=closeDelimiter.length;
+		for(int i=0; i<partHeaders.length; i++) {
+			long[] range=ranges.get(i);
+			partHeaders[i]=("\r\n--"+boundary+"\r\nContent-Type: "+contentType+"\r\nContent-Range: bytes "+range[0]+"-"+(range[1]-1)+"/"+length+"\r\n\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1);
+			contentLength+=partHeaders[i].length+range[1]-range[0];
+		}
+		response.setContentType("multipart/byteranges; boundary="+boundary);
+		response.setContentLengthLong(contentLength);
+		if(head) {
+			return;
+		}
+		ServletOutputStream output=response.getOutputStream();
+		try(FileChannel channel=open(file)) {
+			for(int i=0; i<partHeaders.length; i++) {
+				long[] range=ranges.get(i);
+				output.write(partHeaders[i]);
+				copy(channel, range[0], range[1], output);
+			}
+		}
+		output.write(closeDelimiter);
+	}
+
+	private static void sendRange(HttpServletRequest request, HttpServletResponse response, File file, long start, long end) throws IOException {
+		//containers only honor sendfile when the response is completed by the container thread, not by an AsyncContext,
+		//and the dispatcher's wrappers processing the body for @Cached, @Coalesce, @ETag or @Compress would miss it
+		if(end>start&&!request.isAsyncStarted()&&!isBodyCaptured(response)&&Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+			request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+			request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+			request.setAttribute(SENDFILE_END_ATTRIBUTE, end);
+			return;
+		}
+		try(FileChannel channel=open(file)) {
+			copy(channel, start, end, response.getOutputStream());
+		}
+	}
+
+	private static boolean isBodyCaptured(HttpServletResponse response) {
+		ServletResponse r=response;
+		while(r instanceof HttpServletResponseWrapper) {
+			if(r instanceof ResponseCapture||r instanceof ETagResponse||r instanceof CompressionResponse) {
+				return true;
+			}
+			r=((HttpServletResponseWrapper)r).getResponse();
+		}
+		return false;
+	}
+
+	private static FileChannel open(File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Copies bytes [start,end) of the channel with positional reads, which do not touch the channel position.
+	 */
+	static void copy(FileChannel channel, long start, long end, OutputStream output) throws IOException {
+		ByteBuffer buffer=BufferPool.acquire();
+		try {
+			byte[] array=buffer.array();
+			long position=start;
+			while(position<end) {
+				((Buffer)buffer).clear();
+				if(end-position<buffer.capacity()) {
+					((Buffer)buffer).limit((int)(end-position));
+				}
+				int n=channel.read(buffer, position);
+				if(n<0) {//file truncated meanwhile, the declared Content-Length can no longer be satisfied
+					throw new EOFException("unexpected end of file at position "+position);
+				}
+				output.write(array, buffer.arrayOffset(), n);
+				position+=n;
+			}
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	/**
+	 * A Range header is only applied if If-Range is absent or still matches the file.
+	 */
+	private static boolean isRangeApplicable(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange=request.getHeader("If-Range");
+		if(ifRange==null) {
+			return true;
+		}
+		if(ifRange.startsWith("\"")||ifRange.startsWith("W/")) {
+			return ConditionalRequest.matches(ifRange.trim(), etag, true);
+		}
+		try {
+			long date=request.getDateHeader("If-Range");
+			return date!=-1&&date/1000==lastModified/1000;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return [start,end) pairs of satisfiable ranges, with overlapping ranges coalesced; an empty list if no range is satisfiable,
+	 * or null if the header is malformed and should be ignored
+	 */
+	static List<long[]> parseRanges(String header, long length) {
+		if(!header.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+		List<long[]> ranges=new ArrayList<>();
+		for(String spec:header.substring(6).split(",")) {
+			spec=spec.trim();
+			if(spec.isEmpty()) {
+				continue;
+			}
+			int dash=spec.indexOf('-');
+			if(dash==-1) {
+				return null;
+			}
+			long start;
+			long end;
+			try {
+				if(dash==0) {
+					long suffix=Long.parseLong(spec.substring(1));
+					if(suffix<0) {
+						return null;
+					}
+					start=Math.max(0, length-suffix);
+					end=length;
+					if(suffix==0) {
+						continue;
+					}
+				}else {
+					start=Long.parseLong(spec.substring(0, dash).trim());
+					String last=spec.substring(dash+1).trim();
+					long lastPosition=last.isEmpty()?Long.MAX_VALUE-1:Long.parseLong(last);
+					if(start<0||lastPosition<start) {
+						return null;
+					}
+					end=Math.min(length, lastPosition+1);
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if(start>=length) {
+				continue;
+			}
+			ranges.add(new long[] {start, end});
+		}
+		if(ranges.size()>1) {
+			coalesce(ranges);
+		}
+		return ranges;
+	}
+
+	private static void coalesce(List<long[]> ranges) {
+		ranges.sort((a, b)->Long.compare(a[0], b[0]));
+		List<long[]> merged=new ArrayList<>();
+		long[] current=ranges.get(0);
+		for(int i=1; i<ranges.size(); i++) {
+			long[] range=ranges.get(i);
+			if(range[0]<=current[1]) {
+				current[1]=Math.max(current[1], range[1]);
+			}else {
+				merged.add(current);
+				current=range;
+			}
+		}
+		merged.add(current);
+		ranges.clear();
+		ranges.addAll(merged);
+	}
+}
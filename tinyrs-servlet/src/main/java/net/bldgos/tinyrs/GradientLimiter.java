@@ -0,0 +1,112 @@
+package net.bldgos.tinyrs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limiter adjusting its limit from the gradient between the long-term average latency and
+ * the average latency of the latest sample window, in the spirit of TCP Vegas: while the gradient is 1 the limit
+ * grows by about its square root, as queuing delay builds up the gradient drops and so does the limit.
+ * A window with failed or timed out requests shrinks the limit by 10%.
+ * <p>
+ * Completed requests are only added to lock-free accumulators, the limit is recomputed at most once per window
+ * by whichever request closes it, while the others go on without waiting.
+ */
+class GradientLimiter extends ConcurrencyLimiter {
+	//samples the long-term average latency adapts over
+	private static final int LONG_WINDOW=600;
+	private static final long DEFAULT_WINDOW_NANOS=TimeUnit.MILLISECONDS.toNanos(100);
+	//a window is closed once it has this many samples, unless a request was dropped
+	private static final int MIN_WINDOW_SAMPLES=10;
+	//latency above the long-term average by less than this factor is not considered queuing
+	private static final double TOLERANCE=1.5;
+	private static final double SMOOTHING=0.2;
+	private static final double BACKOFF_RATIO=0.9;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long windowNanos;
+	//samples of the current window
+	private final LongAdder windowRtt=new LongAdder();
+	private final LongAdder windowSamples=new LongAdder();
+	private final LongAccumulator windowMaxInFlight=new LongAccumulator(Math::max, 0);
+	private final AtomicBoolean windowDropped=new AtomicBoolean();
+	private volatile long windowStart=System.nanoTime();
+	//held by the request recomputing the limit, guards the fields below
+	private final AtomicBoolean updating=new AtomicBoolean();
+	private double estimatedLimit;
+	//exponential moving average of latency in nanoseconds, 0 until the first window
+	private double longRtt;
+	private int samples;
+
+	GradientLimiter(int initialLimit, int minLimit, int maxLimit, int retryAfter) {
+		this(initialLimit, minLimit, maxLimit, retryAfter, DEFAULT_WINDOW_NANOS);
+	}
+
+	GradientLimiter(int initialLimit, int minLimit, int maxLimit, int retryAfter, long windowNanos) {
+		super(initialLimit, retryAfter);
+		this.minLimit=minLimit;
+		this.maxLimit=maxLimit;
+		this.windowNanos=windowNanos;
+		this.estimatedLimit=initialLimit;
+	}
+
+	@Override
+	boolean isAdaptive() {
+		return true;
+	}
+
+	@Override
+	void onSample(long rtt, int inFlight, boolean dropped) {
+		if(dropped) {
+			windowDropped.set(true);
+		}else {
+			windowRtt.add(rtt);
+			windowSamples.increment();
+			windowMaxInFlight.accumulate(inFlight);
+		}
+		long now=System.nanoTime();
+		if(now-windowStart<windowNanos||!dropped&&windowSamples.sum()<MIN_WINDOW_SAMPLES) {
+			return;
+		}
+		if(!updating.compareAndSet(false, true)) {//another request is closing the window
+			return;
+		}
+		try {
+			if(now-windowStart>=windowNanos) {//not closed meanwhile
+				windowStart=now;
+				update(windowDropped.getAndSet(false), windowRtt.sumThenReset(), windowSamples.sumThenReset(), (int)windowMaxInFlight.getThenReset());
+			}
+		} finally {
+			updating.set(false);
+		}
+	}
+
+	private void update(boolean dropped, long rttSum, long count, int maxInFlight) {
+		double newLimit;
+		if(dropped) {
+			newLimit=estimatedLimit*BACKOFF_RATIO;
+		}else {
+			if(count==0) {
+				return;
+			}
+			double rtt=(double)rttSum/count;
+			samples=(int)Math.min(LONG_WINDOW, samples+count);
+			longRtt=longRtt==0?rtt:longRtt+(rtt-longRtt)*count/samples;
+			//after a period of overload the average may stay high, let it recover quickly
+			if(longRtt>2*rtt) {
+				longRtt*=0.95;
+			}
+			if(maxInFlight<estimatedLimit/2) {//the limit is not what holds requests back, no evidence to change it
+				return;
+			}
+			double gradient=Math.max(0.5, Math.min(1.0, TOLERANCE*longRtt/rtt));
+			double queueSize=Math.sqrt(estimatedLimit);
+			newLimit=estimatedLimit*gradient+queueSize;
+			newLimit=estimatedLimit*(1-SMOOTHING)+newLimit*SMOOTHING;
+		}
+		estimatedLimit=Math.max(minLimit, Math.min(maxLimit, newLimit));
+		setLimit((int)estimatedLimit);
+	}
+}
@@ -0,0 +1,50 @@
+package net.bldgos.tinyrs;
+
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Binary data formats of Jackson negotiated alongside JSON, each registered only if its jackson-dataformat module
+ * is on the classpath. Factories are looked up by name, so that neither module is a dependency of tinyrs.
+ */
+final class JacksonDataFormats {
+	private static final MediaType[] MEDIA_TYPES={JacksonEntityWriter.APPLICATION_CBOR_TYPE,JacksonEntityWriter.APPLICATION_SMILE_TYPE};
+	//indexed like MEDIA_TYPES
+	private static final String[] FACTORY_CLASSES={"com.fasterxml.jackson.dataformat.cbor.CBORFactory","com.fasterxml.jackson.dataformat.smile.SmileFactory"};
+
+	private JacksonDataFormats() {
+	}
+
+	static void addWriters(List<EntityWriter> writers, int batchSize, int flushBytes) {
+		for(int i=0; i<MEDIA_TYPES.length; i++) {
+			JsonFactory factory=createFactory(FACTORY_CLASSES[i]);
+			if(factory!=null) {
+				writers.add(new JacksonEntityWriter(new ObjectMapper(factory), MEDIA_TYPES[i], batchSize, flushBytes));
+			}
+		}
+	}
+
+	static void addReaders(List<EntityReader> readers) {
+		for(int i=0; i<MEDIA_TYPES.length; i++) {
+			JsonFactory factory=createFactory(FACTORY_CLASSES[i]);
+			if(factory!=null) {
+				readers.add(new JacksonEntityReader(new ObjectMapper(factory), MEDIA_TYPES[i]));
+			}
+		}
+	}
+
+	/**
+	 * @return factory of the data format, null if its module is not on the classpath
+	 */
+	private static JsonFactory createFactory(String className) {
+		try {
+			return (JsonFactory)Class.forName(className, true, JacksonDataFormats.class.getClassLoader()).getConstructor().newInstance();
+		} catch (ReflectiveOperationException|LinkageError e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Deserializes JSON entities with Jackson, parsing incrementally from the request input stream.
+ * Registered by default when jackson-databind is on the classpath, a servlet overriding
+ * {@link TinyrsDispatcherServlet#createEntityReaders()} may pass its own configured ObjectMapper.
+ * Like {@link JacksonEntityWriter}, it reads a binary data format instead if given its media type.
+ */
+public class JacksonEntityReader implements EntityReader {
+	private final ObjectMapper mapper;
+	//media type of the binary data format of the mapper, null for JSON
+	private final MediaType mediaType;
+	//declared entity type -> reader, created at init() by isReadable
+	private final ConcurrentMap<Type,ObjectReader> readers=new ConcurrentHashMap<>();
+
+	public JacksonEntityReader() {
+		this(new ObjectMapper());
+	}
+
+	public JacksonEntityReader(ObjectMapper mapper) {
+		this(mapper, null);
+	}
+
+	/**
+	 * @param mediaType media type of the binary data format of the mapper, e.g. application/cbor, null for JSON
+	 */
+	public JacksonEntityReader(ObjectMapper mapper, MediaType mediaType) {
+		this.mapper=mapper;
+		this.mediaType=mediaType;
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, MediaType mediaType) {
+		if(this.mediaType==null?!JacksonEntityWriter.isJson(mediaType):!JacksonEntityWriter.isFormat(this.mediaType, mediaType)) {
+			return false;
+		}
+		readerFor(genericType);
+		return true;
+	}
+
+	@Override
+	public Object read(Class<?> type, Type genericType, MediaType mediaType, InputStream input) throws IOException, ServletException {
+		try {
+			return readerFor(genericType).readValue(input);
+		} catch (JsonProcessingException e) {
+			throw new BindingException(HttpServletResponse.SC_BAD_REQUEST, "malformed "+(this.mediaType==null?"JSON":this.mediaType.getSubtype())+" entity: "+e.getOriginalMessage(), e);
+		}
+	}
+
+	/**
+	 * @return reader of the type, which leaves the input stream open
+	 */
+	protected ObjectReader readerFor(Type type) {
+		ObjectReader reader=readers.get(type);
+		if(reader==null) {
+			reader=mapper.readerFor(mapper.constructType(type)).without(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+			readers.putIfAbsent(type, reader);
+		}
+		return reader;
+	}
+}
@@ -0,0 +1,256 @@
+package net.bldgos.tinyrs;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Serializes entities as JSON with Jackson, streaming straight to the response output stream.
+ * Registered by default when jackson-databind is on the classpath, a servlet overriding
+ * {@link TinyrsDispatcherServlet#createEntityWriters()} may pass its own configured ObjectMapper.
+ * <p>
+ * A {@link Stream} or {@link Iterator} entity is written element by element, as a JSON array, or as newline
+ * delimited JSON if application/x-ndjson was negotiated, so that its elements are never all held in memory.
+ * The response is flushed every batchSize elements or flushBytes bytes, whichever comes first.
+ * The dispatcher closes the stream once written, or when writing fails because the client has gone.
+ * <p>
+ * Given the media type of a binary data format, e.g. a mapper with a CBORFactory as application/cbor, it writes
+ * that format instead of JSON, only if that media type was negotiated. Such writers are registered by default for
+ * CBOR and Smile when their jackson-dataformat module is on the classpath, so that resource methods producing JSON
+ * also produce these formats, see {@link TinyrsDispatcherServlet#createEntityWriters()}.
+ */
+public class JacksonEntityWriter implements EntityWriter {
+	public static final String APPLICATION_NDJSON="application/x-ndjson";
+	public static final MediaType APPLICATION_NDJSON_TYPE=new MediaType("application", "x-ndjson");
+	public static final String APPLICATION_CBOR="application/cbor";
+	public static final MediaType APPLICATION_CBOR_TYPE=new MediaType("application", "cbor");
+	public static final String APPLICATION_SMILE="application/x-jackson-smile";
+	public static final MediaType APPLICATION_SMILE_TYPE=new MediaType("application", "x-jackson-smile");
+	static final int DEFAULT_BATCH_SIZE=64;
+	static final int DEFAULT_FLUSH_BYTES=8192;
+	private final ObjectMapper mapper;
+	//media type of the binary data format of the mapper, null for JSON
+	private final MediaType mediaType;
+	private final int batchSize;
+	private final int flushBytes;
+	//declared or runtime entity type -> writer, ObjectWriter resolves its serializer once
+	private final ConcurrentMap<Type,ObjectWriter> writers=new ConcurrentHashMap<>();
+	//element type -> writer of NDJSON lines, without INDENT_OUTPUT
+	private final ConcurrentMap<Type,ObjectWriter> lineWriters=new ConcurrentHashMap<>();
+
+	public JacksonEntityWriter() {
+		this(new ObjectMapper());
+	}
+
+	public JacksonEntityWriter(ObjectMapper mapper) {
+		this(mapper, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_BYTES);
+	}
+
+	public JacksonEntityWriter(int batchSize, int flushBytes) {
+		this(new ObjectMapper(), batchSize, flushBytes);
+	}
+
+	/**
+	 * @param batchSize elements of a streamed entity written between flushes at most
+	 * @param flushBytes bytes of a streamed entity written between flushes at most
+	 */
+	public JacksonEntityWriter(ObjectMapper mapper, int batchSize, int flushBytes) {
+		this(mapper, null, batchSize, flushBytes);
+	}
+
+	/**
+	 * @param mapper mapper of a binary data format
+	 * @param mediaType media type of the data format, which must be negotiated for this writer to be used
+	 */
+	public JacksonEntityWriter(ObjectMapper mapper, MediaType mediaType) {
+		this(mapper, mediaType, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_BYTES);
+	}
+
+	/**
+	 * @param mediaType media type of the binary data format of the mapper, null for JSON
+	 */
+	public JacksonEntityWriter(ObjectMapper mapper, MediaType mediaType, int batchSize, int flushBytes) {
+		if(batchSize<=0||flushBytes<=0) {
+			throw new IllegalArgumentException("batchSize and flushBytes should be positive");
+		}
+		this.mapper=mapper;
+		this.mediaType=mediaType;
+		this.batchSize=batchSize;
+		this.flushBytes=flushBytes;
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, MediaType mediaType) {
+		if(this.mediaType!=null) {
+			return isFormat(this.mediaType, mediaType);
+		}
+		if(Stream.class.isAssignableFrom(type)||Iterator.class.isAssignableFrom(type)) {
+			return isJson(mediaType)||isNdjson(mediaType);
+		}
+		return isJson(mediaType);
+	}
+
+	@Override
+	public void write(Object entity, Type genericType, MediaType mediaType, HttpServletResponse response) throws IOException {
+		if(response.getContentType()==null) {
+			response.setContentType(this.mediaType==null?MediaType.APPLICATION_JSON:this.mediaType.toString());
+		}
+		if(entity instanceof Stream||entity instanceof Iterator) {
+			Iterator<?> elements=entity instanceof Stream?((Stream<?>)entity).iterator():(Iterator<?>)entity;
+			writeElements(elements, elementTypeOf(genericType), this.mediaType==null&&isNdjson(mediaType), response.getOutputStream());
+			return;
+		}
+		writerFor(isRuntimeType(genericType)?entity.getClass():genericType).writeValue(response.getOutputStream(), entity);
+	}
+
+	/**
+	 * Writes the elements as a JSON array or one per line, flushing the output stream after every batch
+	 * @param elementType null to serialize the runtime type of each element
+	 */
+	private void writeElements(Iterator<?> elements, Type elementType, boolean ndjson, OutputStream out) throws IOException {
+		CountingOutputStream counter=new CountingOutputStream(out);
+		ObjectWriter writer=elementType==null?null:elementWriterFor(elementType, ndjson);
+		//writer of the runtime class of the previous element, elements of a stream mostly share their class
+		Class<?> lastClass=null;
+		ObjectWriter lastWriter=null;
+		//a failure must leave the array unclosed, the client must not take a truncated response for a complete one
+		try(JsonGenerator generator=mapper.getFactory().createGenerator(counter)
+				.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+				.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)
+				.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)) {
+			if(ndjson) {//no separator but the newline
+				generator.setRootValueSeparator(null);
+			}else {
+				generator.writeStartArray();
+			}
+			int pending=0;
+			while(elements.hasNext()) {
+				Object element=elements.next();
+				if(element==null) {
+					generator.writeNull();
+				}else if(writer!=null) {
+					writer.writeValue(generator, element);
+				}else {
+					if(element.getClass()!=lastClass) {
+						lastClass=element.getClass();
+						lastWriter=elementWriterFor(lastClass, ndjson);
+					}
+					lastWriter.writeValue(generator, element);
+				}
+				if(ndjson) {
+					generator.writeRaw('\n');
+				}
+				if(++pending>=batchSize||counter.count>=flushBytes) {
+					generator.flush();
+					out.flush();
+					pending=0;
+					counter.count=0;
+				}
+			}
+			if(!ndjson) {
+				generator.writeEndArray();
+			}
+		}
+	}
+
+	private ObjectWriter elementWriterFor(Type type, boolean ndjson) {
+		if(!ndjson) {
+			return writerFor(type);
+		}
+		ObjectWriter writer=lineWriters.get(type);
+		if(writer==null) {//one element per line
+			writer=writerFor(type).without(SerializationFeature.INDENT_OUTPUT);
+			lineWriters.putIfAbsent(type, writer);
+		}
+		return writer;
+	}
+
+	/**
+	 * @return writer of the type, which leaves the output stream open for the response wrappers of the dispatcher
+	 */
+	protected ObjectWriter writerFor(Type type) {
+		ObjectWriter writer=writers.get(type);
+		if(writer==null) {
+			writer=mapper.writerFor(mapper.constructType(type)).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			writers.putIfAbsent(type, writer);
+		}
+		return writer;
+	}
+
+	/**
+	 * @return element type of a Stream or Iterator type, null if it must be taken from each element at runtime
+	 */
+	private static Type elementTypeOf(Type genericType) {
+		if(!(genericType instanceof ParameterizedType)) {
+			return null;
+		}
+		Type[] typeArguments=((ParameterizedType)genericType).getActualTypeArguments();
+		return typeArguments.length!=1||isRuntimeType(typeArguments[0])?null:typeArguments[0];
+	}
+
+	/**
+	 * @return true if an Object or type variable says nothing, so that the runtime type has to be serialized instead
+	 */
+	private static boolean isRuntimeType(Type type) {
+		return type==Object.class||type instanceof TypeVariable||type instanceof WildcardType;
+	}
+
+	static boolean isNdjson(MediaType mediaType) {
+		return isFormat(APPLICATION_NDJSON_TYPE, mediaType);
+	}
+
+	/**
+	 * @return true if the media type is the one of the data format, regardless of parameters
+	 */
+	static boolean isFormat(MediaType format, MediaType mediaType) {
+		return mediaType.getType().equals(format.getType())&&mediaType.getSubtype().equals(format.getSubtype());
+	}
+
+	/**
+	 * @return true for application/json, any +json type, and wildcards
+	 */
+	static boolean isJson(MediaType mediaType) {
+		if(mediaType.isWildcardType()) {
+			return true;
+		}
+		String subtype=mediaType.getSubtype();
+		return mediaType.getType().equals("application")&&(mediaType.isWildcardSubtype()||subtype.equals("json")||subtype.endsWith("+json"));
+	}
+
+	//counts the bytes handed to the response since the last flush
+	private static class CountingOutputStream extends FilterOutputStream {
+		private int count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count+=len;
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maximum size in bytes of the request body read into the entity parameter of a resource method, see {@link EntityReader}.
+ * A larger body is rejected with 413 as soon as its Content-Length or the bytes read exceed it, before it is buffered.
+ * Without this annotation the limit is 1MiB, configurable with servlet init-param <code>net.bldgos.tinyrs.maxEntitySize</code>.
+ */
+@Target({ElementType.TYPE,ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface MaxEntitySize {
+	long value();
+}
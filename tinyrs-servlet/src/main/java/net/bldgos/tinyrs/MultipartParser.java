@@ -0,0 +1,363 @@
+package net.bldgos.tinyrs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Streaming parser of multipart/form-data request bodies (RFC 7578). Unlike HttpServletRequest.getParts(), parts are
+ * neither buffered in memory nor spilled to temp files: each part is handed to a {@link PartHandler} as a stream
+ * ending at the next boundary, which reads straight from the request input through one pooled buffer.
+ * Memory use is constant regardless of the number and size of parts.
+ */
+public final class MultipartParser {
+	private static final int MAX_HEADER_SIZE=16*1024;
+	private static final byte[] CRLF={'\r','\n'};
+
+	private final InputStream input;
+	//CRLF--boundary
+	private final byte[] delimiter;
+	private ByteBuffer buffer;
+	private byte[] buf;
+	private int pos;
+	private int limit;
+	private boolean eof;
+
+	private MultipartParser(InputStream input, String boundary) {
+		this.input=input;
+		this.delimiter=("\r\n--"+boundary).getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return boundary parameter of the multipart request Content-Type, or null if it is absent
+	 */
+	public static String getBoundary(HttpServletRequest request) {
+		String contentType=request.getContentType();
+		if(contentType==null) {
+			return null;
+		}
+		try {
+			String boundary=MediaType.valueOf(contentType).getParameters().get("boundary");
+			return boundary==null||boundary.isEmpty()||boundary.length()>70?null:boundary;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parses the request body, calling the handler once per part in order.
+	 * @throws IOException if the body is malformed, or the handler fails
+	 */
+	public static void parse(HttpServletRequest request, PartHandler handler) throws IOException {
+		String boundary=getBoundary(request);
+		if(boundary==null) {
+			throw new IOException("missing boundary in multipart Content-Type");
+		}
+		parse(request.getInputStream(), boundary, handler);
+	}
+
+	public static void parse(InputStream input, String boundary, PartHandler handler) throws IOException {
+		new MultipartParser(input, boundary).parse(handler);
+	}
+
+	private void parse(PartHandler handler) throws IOException {
+		buffer=BufferPool.acquire();
+		buf=buffer.array();
+		try {
+			//the first boundary may not be preceded by CRLF, pretend it is
+			buf[0]='\r';
+			buf[1]='\n';
+			limit=2;
+			skip(new PartInputStream());//preamble
+			while(readDelimiterSuffix()) {
+				PartInputStream stream=new PartInputStream();
+				handler.handle(new Part(readHeaders(), stream));
+				skip(stream);
+			}
+		} finally {
+			BufferPool.release(buffer);
+			buf=null;
+		}
+	}
+
+	/**
+	 * Skips the rest of a part up to and including the next delimiter.
+	 */
+	private static void skip(PartInputStream stream) throws IOException {
+		while(stream.skip(Long.MAX_VALUE)>0) {
+		}
+	}
+
+	/**
+	 * Reads what follows a delimiter, i.e. "--" of the close delimiter or optional whitespace and CRLF.
+	 * @return true if a part follows
+	 */
+	private boolean readDelimiterSuffix() throws IOException {
+		if(!fill(2)) {
+			throw new EOFException("unexpected end of multipart stream");
+		}
+		if(buf[pos]=='-'&&buf[pos+1]=='-') {
+			pos+=2;
+			return false;
+		}
+		while(true) {
+			if(!fill(2)) {
+				throw new EOFException("unexpected end of multipart stream");
+			}
+			if(buf[pos]=='\r'&&buf[pos+1]=='\n') {
+				pos+=2;
+				return true;
+			}
+			if(buf[pos]!=' '&&buf[pos]!='\t') {
+				throw new IOException("malformed multipart boundary line");
+			}
+			pos++;
+		}
+	}
+
+	private Map<String,String> readHeaders() throws IOException {
+		Map<String,String> headers=new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		int size=0;
+		while(true) {
+			int end=-1;
+			while(true) {
+				end=indexOf(CRLF, pos, limit);
+				if(end!=-1) {
+					break;
+				}
+				if(limit-pos>=MAX_HEADER_SIZE) {
+					throw new IOException("multipart header too large");
+				}
+				if(!fill(limit-pos+1)) {
+					throw new EOFException("unexpected end of multipart stream");
+				}
+			}
+			int lineLength=end-pos;
+			size+=lineLength+2;
+			if(size>MAX_HEADER_SIZE) {
+				throw new IOException("multipart header too large");
+			}
+			if(lineLength==0) {
+				pos=end+2;
+				return headers;
+			}
+			String line=new String(buf, pos, lineLength, StandardCharsets.UTF_8);
+			pos=end+2;
+			int colon=line.indexOf(':');
+			if(colon>0) {
+				headers.put(line.substring(0, colon).trim(), line.substring(colon+1).trim());
+			}
+		}
+	}
+
+	/**
+	 * Makes at least n bytes available from pos, compacting the buffer if needed.
+	 * @return false if the stream ends before
+	 */
+	private boolean fill(int n) throws IOException {
+		if(limit-pos>=n) {
+			return true;
+		}
+		if(pos>0) {
+			System.arraycopy(buf, pos, buf, 0, limit-pos);
+			limit-=pos;
+			pos=0;
+		}
+		while(limit<n&&!eof) {
+			int r=input.read(buf, limit, buf.length-limit);
+			if(r<0) {
+				eof=true;
+			}else {
+				limit+=r;
+			}
+		}
+		return limit>=n;
+	}
+
+	private int indexOf(byte[] pattern, int from, int to) {
+		byte first=pattern[0];
+		int max=to-pattern.length;
+		outer:for(int i=from; i<=max; i++) {
+			if(buf[i]!=first) {
+				continue;
+			}
+			for(int j=1; j<pattern.length; j++) {
+				if(buf[i+j]!=pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads part data from the shared buffer up to the next delimiter, which is consumed on reaching it.
+	 */
+	private class PartInputStream extends InputStream {
+		private boolean done;
+
+		/**
+		 * @return number of bytes which are certainly part data, 0 if the delimiter is reached
+		 */
+		private int available0() throws IOException {
+			if(done) {
+				return 0;
+			}
+			if(limit-pos<delimiter.length) {
+				fill(delimiter.length);
+			}
+			int index=indexOf(delimiter, pos, limit);
+			if(index==pos) {
+				pos+=delimiter.length;
+				done=true;
+				return 0;
+			}
+			if(index!=-1) {
+				return index-pos;
+			}
+			if(eof) {
+				throw new EOFException("unexpected end of multipart stream");
+			}
+			//the tail may be the beginning of a delimiter
+			int safe=limit-pos-delimiter.length+1;
+			if(safe>0) {
+				return safe;
+			}
+			fill(limit-pos+1);
+			return available0();
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(available0()==0) {
+				return -1;
+			}
+			return buf[pos++]&0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len==0) {
+				return 0;
+			}
+			int n=Math.min(len, available0());
+			if(n==0) {
+				return -1;
+			}
+			System.arraycopy(buf, pos, b, off, n);
+			pos+=n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			int skipped=(int)Math.min(n, available0());
+			pos+=skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return done?0:Math.max(0, limit-pos-delimiter.length+1);
+		}
+	}
+
+	/**
+	 * A part of a multipart body, valid only during {@link PartHandler#handle(Part)}.
+	 */
+	public static final class Part {
+		private final Map<String,String> headers;
+		private final InputStream inputStream;
+		private final String name;
+		private final String submittedFileName;
+
+		Part(Map<String,String> headers, InputStream inputStream) {
+			this.headers=Collections.unmodifiableMap(headers);
+			this.inputStream=inputStream;
+			Map<String,String> disposition=parseDisposition(headers.get("Content-Disposition"));
+			this.name=disposition.get("name");
+			this.submittedFileName=disposition.get("filename");
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return filename parameter of Content-Disposition, null if the part is not a file
+		 */
+		public String getSubmittedFileName() {
+			return submittedFileName;
+		}
+
+		public String getContentType() {
+			return headers.get("Content-Type");
+		}
+
+		public String getHeader(String name) {
+			return headers.get(name);
+		}
+
+		public Map<String,String> getHeaders() {
+			return headers;
+		}
+
+		/**
+		 * @return stream of the part data, ending at the next boundary. Unread data is skipped after the handler returns.
+		 */
+		public InputStream getInputStream() {
+			return inputStream;
+		}
+
+		private static Map<String,String> parseDisposition(String value) {
+			Map<String,String> parameters=new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			if(value==null) {
+				return parameters;
+			}
+			int i=value.indexOf(';');
+			while(i!=-1&&i<value.length()) {
+				int eq=value.indexOf('=', i+1);
+				if(eq==-1) {
+					break;
+				}
+				String key=value.substring(i+1, eq).trim();
+				StringBuilder sb=new StringBuilder();
+				int j=eq+1;
+				while(j<value.length()&&value.charAt(j)==' ') {
+					j++;
+				}
+				if(j<value.length()&&value.charAt(j)=='"') {
+					for(j++; j<value.length()&&value.charAt(j)!='"'; j++) {
+						char c=value.charAt(j);
+						//browsers do not escape backslashes in file names, only keep \" as quote
+						if(c=='\\'&&j+1<value.length()&&value.charAt(j+1)=='"') {
+							c=value.charAt(++j);
+						}
+						sb.append(c);
+					}
+					i=value.indexOf(';', j);
+				}else {
+					int end=value.indexOf(';', j);
+					sb.append(value, j, end==-1?value.length():end);
+					i=end;
+				}
+				parameters.put(key, key.equals("filename")?sb.toString():sb.toString().trim());
+			}
+			return parameters;
+		}
+	}
+
+	@FunctionalInterface
+	public interface PartHandler {
+		void handle(Part part) throws IOException;
+	}
+}
@@ -0,0 +1,20 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a resource method whose request and response bodies are transferred with servlet 3.1 non-blocking I/O.
+ * The dispatcher calls startAsync() before invoking the method, which returns as soon as it has registered its
+ * I/O callbacks (see {@link NonBlockingIO}), so that no container thread waits for a slow client.
+ * The method is responsible for completing the AsyncContext, which {@link NonBlockingIO} does once a body is written.
+ * The servlet must be declared with asyncSupported=true.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface NonBlocking {
+}
@@ -0,0 +1,173 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Transfers request and response bodies of {@link NonBlocking} resource methods with ReadListener and WriteListener,
+ * through pooled buffers. Callbacks run on container threads only while data can be read or written without blocking.
+ */
+public final class NonBlockingIO {
+	private static final Logger LOGGER=Logger.getLogger(NonBlockingIO.class.getName());
+
+	private NonBlockingIO() {
+	}
+
+	/**
+	 * Reads the request body into the sink as it arrives, then calls the completion, which is expected to write
+	 * the response and complete the AsyncContext, e.g. by {@link #writeBody(AsyncContext, ReadableByteChannel)}.
+	 * The sink receives buffers which are only valid during the call, and must be a blocking channel:
+	 * a write taking no bytes fails the transfer rather than spinning on the container thread.
+	 */
+	public static void readBody(AsyncContext asyncContext, WritableByteChannel sink, Completion completion) throws IOException {
+		requireBlocking(sink);
+		ServletInputStream input=asyncContext.getRequest().getInputStream();
+		input.setReadListener(new ReadListener() {
+			private ByteBuffer buffer=BufferPool.acquire();
+
+			@Override
+			public void onDataAvailable() throws IOException {
+				byte[] array=buffer.array();
+				while(input.isReady()) {
+					int n=input.read(array, 0, array.length);
+					if(n<0) {
+						return;
+					}
+					((Buffer)buffer).clear().limit(n);
+					while(buffer.hasRemaining()) {
+						if(sink.write(buffer)==0) {//reported to onError by the container
+							throw new IOException("sink channel took no bytes, a blocking channel is required");
+						}
+					}
+				}
+			}
+
+			@Override
+			public void onAllDataRead() throws IOException {
+				finish(null);
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				finish(t);
+			}
+
+			private void finish(Throwable failure) {
+				if(buffer==null) {
+					return;
+				}
+				BufferPool.release(buffer);
+				buffer=null;
+				try {
+					completion.complete(failure);
+				} catch (Throwable e) {
+					fail(asyncContext, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes the source to the response body whenever the connection can take more data,
+	 * then closes the source and completes the AsyncContext.
+	 * The source must be a blocking channel: a read returning no bytes fails the transfer rather than spinning on the container thread.
+	 */
+	public static void writeBody(AsyncContext asyncContext, ReadableByteChannel source) throws IOException {
+		requireBlocking(source);
+		ServletOutputStream output=asyncContext.getResponse().getOutputStream();
+		output.setWriteListener(new WriteListener() {
+			private ByteBuffer buffer=BufferPool.acquire();
+
+			@Override
+			public void onWritePossible() throws IOException {
+				while(buffer!=null&&output.isReady()) {
+					((Buffer)buffer).clear();
+					int n=source.read(buffer);
+					if(n<0) {
+						finish(null);
+						return;
+					}
+					if(n==0) {
+						finish(new IOException("source channel returned no bytes, a blocking channel is required"));
+						return;
+					}
+					output.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+				}
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				finish(t);
+			}
+
+			private void finish(Throwable failure) {
+				if(buffer==null) {
+					return;
+				}
+				BufferPool.release(buffer);
+				buffer=null;
+				try {
+					source.close();
+				} catch (IOException e) {
+					failure=failure==null?e:failure;
+				}
+				if(failure!=null) {
+					fail(asyncContext, failure);
+				}else {
+					asyncContext.complete();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Servlet listeners are only called back when the connection is ready, not when the channel is
+	 */
+	private static void requireBlocking(Channel channel) {
+		if(channel instanceof SelectableChannel&&!((SelectableChannel)channel).isBlocking()) {
+			throw new IllegalArgumentException("non-blocking channels are not supported: "+channel);
+		}
+	}
+
+	/**
+	 * Responds 500 if the response is not committed yet and completes the AsyncContext.
+	 */
+	static void fail(AsyncContext asyncContext, Throwable failure) {
+		LOGGER.log(Level.WARNING, "non-blocking request failed", failure);
+		HttpServletResponse response=(HttpServletResponse)asyncContext.getResponse();
+		try {
+			if(!response.isCommitted()) {
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		} catch (IOException|IllegalStateException e) {
+			//client is gone
+		} finally {
+			asyncContext.complete();
+		}
+	}
+
+	/**
+	 * Called once a body has been transferred, or the transfer failed.
+	 */
+	@FunctionalInterface
+	public interface Completion {
+		/**
+		 * @param failure null if the transfer succeeded
+		 */
+		void complete(Throwable failure) throws IOException;
+	}
+}
@@ -0,0 +1,319 @@
+package net.bldgos.tinyrs;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URLDecoder;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+
+/**
+ * Binds a {@link PathParam}, {@link QueryParam} or {@link HeaderParam} parameter of a resource method, resolved at init().
+ * Primitive parameters are parsed by a binder returning the primitive, so they are passed on without boxing.
+ * Other types are converted by their static fromString(String) or valueOf(String) method, or their String constructor.
+ * A value which cannot be converted is answered with 404 for path and query parameters and 400 for headers, like JAX-RS does.
+ */
+final class ParameterBinding {
+	private static final int PATH=0;
+	private static final int QUERY=1;
+	private static final int HEADER=2;
+	private static final MethodHandles.Lookup LOOKUP=MethodHandles.lookup();
+	private final int source;
+	private final String name;
+	//null if there is no @DefaultValue
+	private final String defaultValue;
+	private final Class<?> type;
+	//(String)Object converting the value of an object type, null for String and primitive types
+	private MethodHandle converter;
+
+	private ParameterBinding(int source, String name, String defaultValue, Class<?> type) {
+		this.source=source;
+		this.name=name;
+		this.defaultValue=defaultValue;
+		this.type=type;
+	}
+
+	/**
+	 * @return true if the parameter is annotated @PathParam, @QueryParam or @HeaderParam, otherwise it is the entity parameter
+	 */
+	static boolean isAnnotated(Method method, int index) {
+		for(Annotation annotation:method.getParameterAnnotations()[index]) {
+			if(annotation instanceof PathParam||annotation instanceof QueryParam||annotation instanceof HeaderParam) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param pathParameterNames names of the @Path template parameters, null if there is none
+	 * @return binding of the parameter, null if it has no binding annotation
+	 */
+	static ParameterBinding of(Method method, int index, String[] pathParameterNames) throws ServletException {
+		int source=-1;
+		String name=null;
+		String defaultValue=null;
+		for(Annotation annotation:method.getParameterAnnotations()[index]) {
+			if(annotation instanceof DefaultValue) {
+				defaultValue=((DefaultValue)annotation).value();
+				continue;
+			}
+			int annotationSource;
+			if(annotation instanceof PathParam) {
+				annotationSource=PATH;
+				name=((PathParam)annotation).value();
+			}else if(annotation instanceof QueryParam) {
+				annotationSource=QUERY;
+				name=((QueryParam)annotation).value();
+			}else if(annotation instanceof HeaderParam) {
+				annotationSource=HEADER;
+				name=((HeaderParam)annotation).value();
+			}else {
+				continue;
+			}
+			if(source!=-1) {
+				throw new ServletException("parameter "+index+" of resource method "+method+" has more than one binding annotation");
+			}
+			source=annotationSource;
+		}
+		if(source==-1) {
+			if(defaultValue!=null) {
+				throw new ServletException("@DefaultValue requires @PathParam, @QueryParam or @HeaderParam: parameter "+index+" of resource method "+method);
+			}
+			return null;
+		}
+		if(source==PATH&&(pathParameterNames==null||!Arrays.asList(pathParameterNames).contains(name))) {
+			throw new ServletException("@PathParam(\""+name+"\") is not a template parameter of the @Path of resource method "+method);
+		}
+		ParameterBinding binding=new ParameterBinding(source, name, defaultValue, method.getParameterTypes()[index]);
+		binding.resolveConverter(method);
+		return binding;
+	}
+
+	private void resolveConverter(Method method) throws ServletException {
+		if(type.isPrimitive()) {
+			if(type==char.class) {
+				throw new ServletException("unsupported parameter type char of resource method "+method);
+			}
+		}else if(type!=String.class) {
+			converter=findConverter(type);
+			if(converter==null) {
+				throw new ServletException("parameter type "+type.getName()+" of resource method "+method+" has neither static fromString(String) nor valueOf(String) nor a String constructor");
+			}
+		}
+		if(defaultValue!=null) {//fail at init() rather than on every request without the value
+			try {
+				convert(defaultValue);
+			} catch (BindingException e) {
+				throw new ServletException("illegal @DefaultValue(\""+defaultValue+"\") of resource method "+method, e);
+			}
+		}
+	}
+
+	private static MethodHandle findConverter(Class<?> type) {
+		MethodType factoryType=MethodType.methodType(type, String.class);
+		for(String factory:type.isEnum()?new String[] {"fromString","valueOf"}:new String[] {"valueOf","fromString"}) {
+			try {
+				Method method=type.getMethod(factory, String.class);
+				if(Modifier.isStatic(method.getModifiers())&&method.getReturnType()==type) {
+					return LOOKUP.findStatic(type, factory, factoryType).asType(MethodType.methodType(Object.class, String.class));
+				}
+			} catch (NoSuchMethodException|IllegalAccessException e) {
+				//try the next one
+			}
+		}
+		try {
+			return LOOKUP.findConstructor(type, factoryType.changeReturnType(void.class)).asType(MethodType.methodType(Object.class, String.class));
+		} catch (NoSuchMethodException|IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return binder of type (HttpServletRequest) returning the parameter type
+	 */
+	MethodHandle binder() {
+		String binderName;
+		Class<?> binderType;
+		if(type==int.class||type==short.class||type==byte.class) {
+			binderName="intValue";
+			binderType=int.class;
+		}else if(type==long.class) {
+			binderName="longValue";
+			binderType=long.class;
+		}else if(type==double.class||type==float.class) {
+			binderName="doubleValue";
+			binderType=double.class;
+		}else if(type==boolean.class) {
+			binderName="booleanValue";
+			binderType=boolean.class;
+		}else {
+			binderName="objectValue";
+			binderType=Object.class;
+		}
+		try {
+			MethodHandle binder=LOOKUP.findVirtual(ParameterBinding.class, binderName, MethodType.methodType(binderType, HttpServletRequest.class)).bindTo(this);
+			//narrowing of int and double is checked by the binder
+			return MethodHandles.explicitCastArguments(binder, MethodType.methodType(type, HttpServletRequest.class));
+		} catch (NoSuchMethodException|IllegalAccessException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private String value(HttpServletRequest request) {
+		String value;
+		switch(source) {
+		case PATH:
+			value=TinyrsDispatcherServlet.getPathParameter(request, name);
+			break;
+		case QUERY:
+			value=queryParameter(request.getQueryString(), name);
+			break;
+		default:
+			value=request.getHeader(name);
+		}
+		return value==null?defaultValue:value;
+	}
+
+	int intValue(HttpServletRequest request) throws BindingException {
+		String value=value(request);
+		if(value==null) {
+			return 0;
+		}
+		try {
+			int n=Integer.parseInt(value);
+			if(type==short.class&&(short)n!=n||type==byte.class&&(byte)n!=n) {
+				throw new NumberFormatException("out of range: "+value);
+			}
+			return n;
+		} catch (NumberFormatException e) {
+			throw fail(value, e);
+		}
+	}
+
+	long longValue(HttpServletRequest request) throws BindingException {
+		String value=value(request);
+		if(value==null) {
+			return 0L;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw fail(value, e);
+		}
+	}
+
+	double doubleValue(HttpServletRequest request) throws BindingException {
+		String value=value(request);
+		if(value==null) {
+			return 0d;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw fail(value, e);
+		}
+	}
+
+	boolean booleanValue(HttpServletRequest request) {
+		return Boolean.parseBoolean(value(request));
+	}
+
+	Object objectValue(HttpServletRequest request) throws BindingException {
+		String value=value(request);
+		return value==null?null:convert(value);
+	}
+
+	private Object convert(String value) throws BindingException {
+		if(converter==null) {
+			if(type.isPrimitive()) {
+				//parse like the primitive binders do
+				try {
+					if(type==long.class) {
+						Long.parseLong(value);
+					}else if(type==double.class||type==float.class) {
+						Double.parseDouble(value);
+					}else if(type!=boolean.class) {
+						Integer.parseInt(value);
+					}
+				} catch (NumberFormatException e) {
+					throw fail(value, e);
+				}
+			}
+			return value;
+		}
+		try {
+			return (Object)converter.invokeExact(value);
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw fail(value, e);
+		}
+	}
+
+	private BindingException fail(String value, Throwable cause) {
+		String message="illegal value of "+(source==PATH?"@PathParam":source==QUERY?"@QueryParam":"@HeaderParam")+"(\""+name+"\"): "+value;
+		return new BindingException(source==HEADER?HttpServletResponse.SC_BAD_REQUEST:HttpServletResponse.SC_NOT_FOUND, message, cause);
+	}
+
+	/**
+	 * Finds the first value of the parameter in the query string without parsing all of its parameters,
+	 * and decodes it only if it is encoded
+	 * @return null if the query has no such parameter
+	 */
+	static String queryParameter(String query, String name) {
+		if(query==null) {
+			return null;
+		}
+		int start=0;
+		while(start<=query.length()) {
+			int end=query.indexOf('&', start);
+			if(end==-1) {
+				end=query.length();
+			}
+			int equals=query.indexOf('=', start);
+			int nameEnd=equals==-1||equals>end?end:equals;
+			if(matchesName(query, start, nameEnd, name)) {
+				return nameEnd==end?"":decode(query.substring(nameEnd+1, end));
+			}
+			start=end+1;
+		}
+		return null;
+	}
+
+	private static boolean matchesName(String query, int start, int end, String name) {
+		if(end-start==name.length()&&query.regionMatches(start, name, 0, name.length())) {
+			return true;
+		}
+		//an encoded parameter name
+		for(int i=start; i<end; i++) {
+			char c=query.charAt(i);
+			if(c=='%'||c=='+') {
+				return decode(query.substring(start, end)).equals(name);
+			}
+		}
+		return false;
+	}
+
+	private static String decode(String value) {
+		if(value.indexOf('%')==-1&&value.indexOf('+')==-1) {
+			return value;
+		}
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException|IllegalArgumentException e) {//malformed escape, keep it literal
+			return value;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Pre-bound call of a resource method, created once at init() so that dispatching neither
+ * performs reflective access checks nor boxes arguments into an Object[].
+ */
+@FunctionalInterface
+public interface ResourceInvoker {
+
+	/**
+	 * @return what the resource method returns, null for a void method
+	 */
+	Object invoke(TinyrsDispatcherServlet servlet, HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+
+	/**
+	 * Spins a ResourceInvoker implementation calling the resource method directly, which the JIT can inline,
+	 * or falls back to an exact MethodHandle invocation when the servlet class is not accessible from tinyrs.
+	 */
+	static ResourceInvoker of(Method method) throws ServletException {
+		boolean isVoid=method.getReturnType()==void.class;
+		MethodType invokeType=MethodType.methodType(isVoid?void.class:Object.class, TinyrsDispatcherServlet.class, HttpServletRequest.class, HttpServletResponse.class);
+		MethodHandles.Lookup lookup=MethodHandles.lookup();
+		MethodHandle handle=ArgumentBinder.unreflect(method);
+		if(Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+			try {
+				if(isVoid) {//a void implementation cannot be adapted to return Object
+					CallSite site=LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(VoidResourceInvoker.class), invokeType, handle, handle.type());
+					VoidResourceInvoker invoker=(VoidResourceInvoker)site.getTarget().invoke();
+					return (servlet, request, response)->{
+						invoker.invoke(servlet, request, response);
+						return null;
+					};
+				}
+				CallSite site=LambdaMetafactory.metafactory(lookup, "invoke", MethodType.methodType(ResourceInvoker.class), invokeType, handle, handle.type());
+				return (ResourceInvoker)site.getTarget().invoke();
+			} catch (Throwable e) {
+				//e.g. the servlet class is not visible from the class loader of tinyrs, use the method handle instead
+			}
+		}
+		return ArgumentBinder.invoker(handle.asType(invokeType.changeReturnType(Object.class)));
+	}
+}
+
+@FunctionalInterface
+interface VoidResourceInvoker {
+	void invoke(TinyrsDispatcherServlet servlet, HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+}
@@ -0,0 +1,312 @@
+package net.bldgos.tinyrs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte-bounded cache of {@link CapturedResponse}s with per-entry expiration, evicting with W-TinyLFU:
+ * new entries enter a small LRU window, entries leaving the window are only admitted to the main LRU region
+ * if they were requested more often than the main region's eviction victim, according to a frequency sketch
+ * of all recent requests. One-hit wonders therefore cannot flush popular entries.
+ * Bodies larger than {@link #DIRECT_THRESHOLD} are kept in direct buffers, out of the java heap.
+ * <p>
+ * Lookups only read a concurrent map and record the access in a lossy ring buffer, they never wait for the lock.
+ * The buffer is replayed into the sketch and the LRU order under the lock, by a lookup finding it half full
+ * or by the next put. Accesses offered to a full buffer are dropped, which only blurs the popularity estimates.
+ */
+final class ResponseCache {
+	static final int DIRECT_THRESHOLD=BufferPool.BUFFER_SIZE;
+	//percentage of the budget held by the window
+	private static final int WINDOW_PERCENT=1;
+	//accesses buffered between drains, a power of two
+	private static final int ACCESS_BUFFER_SIZE=128;
+	private final long maxBytes;
+	private final long windowMaxBytes;
+	private final LinkedHashMap<String,Entry> window=new LinkedHashMap<>(16, 0.75f, true);
+	private final LinkedHashMap<String,Entry> main=new LinkedHashMap<>(16, 0.75f, true);
+	//entries of both regions, for lookups outside the lock
+	private final ConcurrentHashMap<String,Entry> entries=new ConcurrentHashMap<>();
+	private final FrequencySketch sketch;
+	//keys looked up, written at accessTail outside the lock and drained from accessHead under it
+	private final AtomicReferenceArray<String> accesses=new AtomicReferenceArray<>(ACCESS_BUFFER_SIZE);
+	private final AtomicLong accessTail=new AtomicLong();
+	private volatile long accessHead;
+	//guards the regions, the sketch and the counters below
+	private final ReentrantLock lock=new ReentrantLock();
+	private long windowBytes;
+	private long mainBytes;
+	private long evictions;
+	//incremented by each invalidation, so that responses computed meanwhile are not cached
+	private volatile long generation;
+
+	ResponseCache(long maxBytes) {
+		this.maxBytes=maxBytes;
+		this.windowMaxBytes=Math.max(1, maxBytes*WINDOW_PERCENT/100);
+		//one counter per 512 bytes of budget, sketches need more counters than entries to keep collisions rare
+		this.sketch=new FrequencySketch((int)Math.min(1<<20, Math.max(1024, maxBytes/512)));
+	}
+
+	/**
+	 * @return the unexpired response of the key, or null. Records the request in the frequency sketch.
+	 */
+	CapturedResponse get(String key) {
+		Entry entry=entries.get(key);
+		recordAccess(key);
+		if(entry==null||entry.expiresAt-System.nanoTime()<=0) {//expired entries are removed by the drain
+			return null;
+		}
+		return entry.response;
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+	private void recordAccess(String key) {
+		long tail=accessTail.get();
+		long pending=tail-accessHead;
+		if(pending<ACCESS_BUFFER_SIZE&&accessTail.compareAndSet(tail, tail+1)) {
+			accesses.lazySet((int)tail&(ACCESS_BUFFER_SIZE-1), key);
+			pending++;
+		}
+		if(pending>=ACCESS_BUFFER_SIZE/2&&lock.tryLock()) {
+			try {
+				drainAccesses();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Replays the buffered accesses, must hold the lock
+	 */
+	private void drainAccesses() {
+		long head=accessHead;
+		long tail=accessTail.get();
+		long now=System.nanoTime();
+		for(; head<tail; head++) {
+			int index=(int)head&(ACCESS_BUFFER_SIZE-1);
+			String key=accesses.get(index);
+			if(key==null) {//claimed but not written yet, replayed by the next drain
+				break;
+			}
+			accesses.lazySet(index, null);
+			sketch.increment(key.hashCode());
+			Entry entry=window.get(key);//moves the entry to the most recently used end
+			if(entry==null) {
+				entry=main.get(key);
+			}
+			if(entry!=null&&entry.expiresAt-now<=0) {
+				remove(key);
+			}
+		}
+		accessHead=head;
+	}
+
+	/**
+	 * @param ttl nanoseconds the response stays fresh
+	 * @param generation {@link #getGeneration()} before the response was computed
+	 */
+	void put(String key, CapturedResponse response, long ttl, long generation) {
+		if(response.getBodyLength()>=DIRECT_THRESHOLD) {//copy outside the lock
+			response=response.toDirect();
+		}
+		Entry entry=new Entry(key, response, System.nanoTime()+ttl);
+		if(entry.weight>maxBytes-windowMaxBytes) {
+			return;
+		}
+		lock.lock();
+		try {
+			if(generation!=this.generation) {
+				return;
+			}
+			drainAccesses();
+			remove(key);
+			window.put(key, entry);
+			entries.put(key, entry);
+			windowBytes+=entry.weight;
+			while(windowBytes>windowMaxBytes) {
+				Iterator<Entry> eldest=window.values().iterator();
+				Entry candidate=eldest.next();
+				eldest.remove();
+				windowBytes-=candidate.weight;
+				admit(candidate);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void admit(Entry candidate) {
+		long mainMaxBytes=maxBytes-windowMaxBytes;
+		int candidateFrequency=sketch.frequency(candidate.key.hashCode());
+		//evict victims the candidate is more popular than, as long as room is needed
+		long needed=mainBytes+candidate.weight-mainMaxBytes;
+		Iterator<Entry> victims=main.values().iterator();
+		long freed=0;
+		int count=0;
+		while(freed<needed) {
+			Entry victim=victims.next();
+			if(victim.expiresAt-System.nanoTime()>0&&sketch.frequency(victim.key.hashCode())>=candidateFrequency) {
+				entries.remove(candidate.key, candidate);
+				evictions++;
+				return;
+			}
+			freed+=victim.weight;
+			count++;
+		}
+		victims=main.values().iterator();
+		for(int i=0; i<count; i++) {
+			Entry victim=victims.next();
+			victims.remove();
+			entries.remove(victim.key, victim);
+			mainBytes-=victim.weight;
+			evictions++;
+		}
+		main.put(candidate.key, candidate);
+		mainBytes+=candidate.weight;
+	}
+
+	private void remove(String key) {
+		entries.remove(key);
+		Entry entry=window.remove(key);
+		if(entry!=null) {
+			windowBytes-=entry.weight;
+		}
+		entry=main.remove(key);
+		if(entry!=null) {
+			mainBytes-=entry.weight;
+		}
+	}
+
+	/**
+	 * Removes the responses of a path, whatever their query and media type
+	 * @param path path info, as in keys built by the dispatcher
+	 */
+	void invalidate(String path) {
+		lock.lock();
+		try {
+			generation++;
+			invalidate(window, path);
+			invalidate(main, path);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void invalidate(Map<String,Entry> region, String path) {
+		for(Iterator<Entry> it=region.values().iterator(); it.hasNext();) {
+			Entry entry=it.next();
+			String key=entry.key;
+			if(key.startsWith(path)&&(key.length()==path.length()||key.charAt(path.length())=='?'||key.charAt(path.length())=='\n')) {
+				it.remove();
+				entries.remove(key, entry);
+				if(region==window) {
+					windowBytes-=entry.weight;
+				}else {
+					mainBytes-=entry.weight;
+				}
+			}
+		}
+	}
+
+	void clear() {
+		lock.lock();
+		try {
+			generation++;
+			window.clear();
+			main.clear();
+			entries.clear();
+			windowBytes=0;
+			mainBytes=0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getBytes() {
+		lock.lock();
+		try {
+			return windowBytes+mainBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getEvictions() {
+		lock.lock();
+		try {
+			return evictions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static final class Entry {
+		final String key;
+		final CapturedResponse response;
+		final long expiresAt;
+		final int weight;
+
+		Entry(String key, CapturedResponse response, long expiresAt) {
+			this.key=key;
+			this.response=response;
+			this.expiresAt=expiresAt;
+			this.weight=response.getWeight()+2*key.length();
+		}
+	}
+
+	/**
+	 * Count-min sketch of 4-bit counters, halved after 10 samples per counter so that old popularity fades.
+	 */
+	private static final class FrequencySketch {
+		private static final int[] SEEDS={0x97cb3127, 0xb3b7a6c5, 0x8f7b1e4d, 0xc2b2ae35};
+		private final byte[] counters;
+		private final int mask;
+		private final int sampleSize;
+		private int samples;
+
+		FrequencySketch(int width) {
+			int size=Integer.highestOneBit(width-1)<<1;
+			counters=new byte[size];
+			mask=size-1;
+			sampleSize=10*size;
+		}
+
+		void increment(int hash) {
+			boolean incremented=false;
+			for(int seed:SEEDS) {
+				int i=index(hash, seed);
+				if(counters[i]<15) {
+					counters[i]++;
+					incremented=true;
+				}
+			}
+			if(incremented&&++samples>=sampleSize) {
+				for(int i=0; i<counters.length; i++) {
+					counters[i]>>=1;
+				}
+				samples/=2;
+			}
+		}
+
+		int frequency(int hash) {
+			int frequency=15;
+			for(int seed:SEEDS) {
+				frequency=Math.min(frequency, counters[index(hash, seed)]);
+			}
+			return frequency;
+		}
+
+		private int index(int hash, int seed) {
+			int h=hash*seed;
+			return (h^(h>>>17))&mask;
+		}
+	}
+}
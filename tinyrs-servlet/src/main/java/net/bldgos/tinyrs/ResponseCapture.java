@@ -0,0 +1,215 @@
+package net.bldgos.tinyrs;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Writes through to the wrapped response while keeping a copy of the body, up to a maximum size,
+ * so that the response can be replayed once complete.
+ */
+class ResponseCapture extends HttpServletResponseWrapper {
+	private final int maxBytes;
+	private CaptureOutputStream output;
+	private PrintWriter writer;
+	//null once the body exceeded maxBytes
+	private byte[] body=new byte[0];
+	private int size;
+	//Content-Length declared by the resource method, -1 if none
+	private long declaredLength=-1;
+	//called once when the body turns out not to be replayable
+	private Runnable discardListener;
+
+	ResponseCapture(HttpServletResponse response, int maxBytes) {
+		super(response);
+		this.maxBytes=maxBytes;
+	}
+
+	void setDiscardListener(Runnable discardListener) {
+		this.discardListener=discardListener;
+	}
+
+	private void discard() {
+		if(body!=null) {
+			body=null;
+			if(discardListener!=null) {
+				discardListener.run();
+			}
+		}
+	}
+
+	/**
+	 * @return the response if it completed successfully and can be shared, otherwise null
+	 */
+	CapturedResponse getCaptured() {
+		if(writer!=null) {
+			writer.flush();
+		}
+		int status=getStatus();
+		if(body==null||status<200||status>=300||status==HttpServletResponse.SC_PARTIAL_CONTENT) {
+			return null;
+		}
+		//e.g. the body was sent by sendfile, bypassing the output stream
+		if(declaredLength!=-1&&declaredLength!=size) {
+			return null;
+		}
+		List<String> headers=new ArrayList<>();
+		for(String name:getHeaderNames()) {
+			if(name.equalsIgnoreCase("Set-Cookie")) {//private to the client
+				return null;
+			}
+			if(name.equalsIgnoreCase("Content-Type")||name.equalsIgnoreCase("Content-Length")) {
+				continue;
+			}
+			for(String value:getHeaders(name)) {
+				headers.add(name);
+				headers.add(value);
+			}
+		}
+		return new CapturedResponse(status, getContentType(), headers, ByteBuffer.wrap(Arrays.copyOf(body, size)));
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		super.setContentLength(len);
+		declare(len);
+	}
+
+	@Override
+	public void setContentLengthLong(long len) {
+		super.setContentLengthLong(len);
+		declare(len);
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		super.setHeader(name, value);
+		checkHeader(name, value);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		super.addHeader(name, value);
+		checkHeader(name, value);
+	}
+
+	private void checkHeader(String name, String value) {
+		if("content-length".equalsIgnoreCase(name)) {
+			try {
+				declare(Long.parseLong(value.trim()));
+			} catch (NumberFormatException e) {
+				discard();
+			}
+		}
+	}
+
+	private void declare(long length) {
+		declaredLength=length;
+		if(length>maxBytes) {
+			discard();
+		}
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if(writer!=null) {
+			throw new IllegalStateException("getWriter() has already been called for this response");
+		}
+		if(output==null) {
+			output=new CaptureOutputStream(super.getOutputStream());
+		}
+		return output;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws UnsupportedEncodingException {
+		if(writer==null) {
+			if(output!=null) {
+				throw new IllegalStateException("getOutputStream() has already been called for this response");
+			}
+			//the wrapped response does not know a writer is used, make the charset part of Content-Type explicitly
+			String encoding=getCharacterEncoding();
+			setCharacterEncoding(encoding);
+			try {
+				output=new CaptureOutputStream(super.getOutputStream());
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			writer=new PrintWriter(new OutputStreamWriter(output, encoding));
+		}
+		return writer;
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		if(writer!=null) {
+			writer.flush();
+		}
+		super.flushBuffer();
+	}
+
+	private void capture(byte[] b, int off, int len) {
+		if(body==null) {
+			return;
+		}
+		if(size+len>maxBytes) {
+			discard();
+			return;
+		}
+		if(size+len>body.length) {
+			body=Arrays.copyOf(body, Math.min(maxBytes, Math.max(size+len, Math.max(256, 2*body.length))));
+		}
+		System.arraycopy(b, off, body, size, len);
+		size+=len;
+	}
+
+	private class CaptureOutputStream extends ServletOutputStream {
+		private final ServletOutputStream out;
+
+		CaptureOutputStream(ServletOutputStream out) {
+			this.out=out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			capture(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			capture(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return out.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			out.setWriteListener(writeListener);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package net.bldgos.tinyrs;
+
+/**
+ * Snapshot of the runtime state of a resource method, see {@link TinyrsDispatcherServlet#getRouteMetrics()}.
+ */
+public final class RouteMetrics {
+	private final String httpMethod;
+	private final String path;
+	private final String javaMethod;
+	private final boolean adaptive;
+	private final int concurrencyLimit;
+	private final int inFlight;
+	private final long rejections;
+	private final long cacheHits;
+	private final long cacheMisses;
+
+	RouteMetrics(ResourceMethod resourceMethod) {
+		this.httpMethod=resourceMethod.getHttpMethod();
+		this.path=resourceMethod.getPath();
+		this.javaMethod=resourceMethod.getReflectedMethod().getName();
+		ConcurrencyLimiter limiter=resourceMethod.getConcurrencyLimiter();
+		this.adaptive=limiter!=null&&limiter.isAdaptive();
+		this.concurrencyLimit=limiter==null?-1:limiter.getLimit();
+		this.inFlight=limiter==null?-1:limiter.getInFlight();
+		this.rejections=limiter==null?0:limiter.getRejections();
+		this.cacheHits=resourceMethod.getCacheHits().sum();
+		this.cacheMisses=resourceMethod.getCacheMisses().sum();
+	}
+
+	public String getHttpMethod() {
+		return httpMethod;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getJavaMethod() {
+		return javaMethod;
+	}
+
+	/**
+	 * @return true if the concurrency limit is an {@link AdaptiveLimit}
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @return current concurrency limit, -1 if the resource method is not limited
+	 */
+	public int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/**
+	 * @return requests being processed, -1 if the resource method is not limited
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return requests rejected with 503 since the servlet was initialized
+	 */
+	public long getRejections() {
+		return rejections;
+	}
+
+	/**
+	 * @return requests answered from the cache of a {@link Cached} resource method
+	 */
+	public long getCacheHits() {
+		return cacheHits;
+	}
+
+	/**
+	 * @return requests of a {@link Cached} resource method not found in the cache
+	 */
+	public long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	@Override
+	public String toString() {
+		return httpMethod+" "+path+" ("+javaMethod+"): limit="+concurrencyLimit+(adaptive?" adaptive":"")+", inFlight="+inFlight+", rejections="+rejections+", cacheHits="+cacheHits+", cacheMisses="+cacheMisses;
+	}
+}
@@ -0,0 +1,30 @@
+package net.bldgos.tinyrs;
+
+import javax.servlet.ServletException;
+
+/**
+ * Resource methods of a TinyrsDispatcherServlet subclass, generated at build time by tinyrs-processor
+ * as class <code>&lt;servlet class name&gt;_RouteTable</code> in the package of the servlet.
+ * When present, init() registers the listed resource methods instead of scanning the declared methods
+ * of the servlet and spinning an invoker for each of them, only the optional tinyrs annotations are read reflectively.
+ */
+public interface RouteTable {
+	String CLASS_NAME_SUFFIX="_RouteTable";
+
+	void registerRoutes(Registry registry) throws ServletException;
+
+	@FunctionalInterface
+	interface Registry {
+		/**
+		 * @param methodName name of the resource method declared by the servlet class
+		 * @param parameterTypes parameter types of the resource method
+		 * @param httpMethods names of the http method annotations of the resource method, like GET
+		 * @param path value of @Path, / if absent
+		 * @param consumes value of @Consumes, null if absent
+		 * @param produces value of @Produces, null if absent
+		 * @param invoker calls the resource method directly, null if the dispatcher binds parameters other than
+		 * (HttpServletRequest,HttpServletResponse) and creates the invoker itself
+		 */
+		void add(String methodName, Class<?>[] parameterTypes, String[] httpMethods, String path, String[] consumes, String[] produces, ResourceInvoker invoker) throws ServletException;
+	}
+}
@@ -0,0 +1,283 @@
+package net.bldgos.tinyrs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.servlet.ServletException;
+
+/**
+ * Compressed radix trie of @Path templates such as <code>/files/{id}</code> or <code>/files/{id: \d+}/meta</code>.
+ * Literal parts are stored as shared-prefix edges and compared in place against the request path, template
+ * parameters hang off the node that ends with the preceding '/' and match one whole path segment.
+ * Lookup cost depends on the depth of the request path, not on the number of templates.
+ */
+class RouteTrie {
+	private final Node root=new Node("");
+	private int maxParameters;
+
+	/**
+	 * @return the group of resource methods for the template, indexed by http method ordinal
+	 */
+	ResourceMethod[] getOrCreateGroup(List<Object> tokens, int groupSize) {
+		Node node=root;
+		int parameters=0;
+		for(Object token:tokens) {
+			if(token instanceof String) {
+				node=insertLiteral(node, (String)token);
+			}else {
+				node=node.getOrCreateParameter((Parameter)token);
+				parameters++;
+			}
+		}
+		if(node.group==null) {
+			node.group=new ResourceMethod[groupSize];
+		}
+		maxParameters=Math.max(maxParameters, parameters);
+		return node.group;
+	}
+
+	int getMaxParameters() {
+		return maxParameters;
+	}
+
+	/**
+	 * @param bounds receives begin and end index of each matched template parameter, should have length 2*{@link #getMaxParameters()}
+	 * @return the matched group, or null if no template matches the path
+	 */
+	ResourceMethod[] match(String path, int[] bounds) {
+		return match(root, path, 0, bounds, 0);
+	}
+
+	private static ResourceMethod[] match(Node node, String path, int offset, int[] bounds, int depth) {
+		int length=path.length();
+		if(offset==length) {
+			return node.group;
+		}
+		Node child=node.getChild(path.charAt(offset));
+		if(child!=null&&path.startsWith(child.label, offset)) {
+			ResourceMethod[] group=match(child, path, offset+child.label.length(), bounds, depth);
+			if(group!=null) {
+				return group;
+			}
+		}
+		if(node.parameters==null) {
+			return null;
+		}
+		int end=path.indexOf('/', offset);
+		if(end==-1) {
+			end=length;
+		}
+		for(Node parameterNode:node.parameters) {
+			Pattern pattern=parameterNode.parameter.pattern;
+			if(end>offset&&(pattern==null||pattern.matcher(path).region(offset, end).matches())) {
+				bounds[2*depth]=offset;
+				bounds[2*depth+1]=end;
+				ResourceMethod[] group=match(parameterNode, path, end, bounds, depth+1);
+				if(group!=null) {
+					return group;
+				}
+			}
+		}
+		//a trailing regex parameter like {path: .+} may span several segments, only if no template matches segment by segment
+		if(end<length) {
+			for(Node parameterNode:node.parameters) {
+				Pattern pattern=parameterNode.parameter.pattern;
+				if(pattern!=null&&parameterNode.group!=null&&pattern.matcher(path).region(offset, length).matches()) {
+					bounds[2*depth]=offset;
+					bounds[2*depth+1]=length;
+					return parameterNode.group;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Node insertLiteral(Node node, String literal) {
+		while(!literal.isEmpty()) {
+			Node child=node.getChild(literal.charAt(0));
+			if(child==null) {
+				child=new Node(literal);
+				node.addChild(child);
+				return child;
+			}
+			int common=0;
+			int max=Math.min(child.label.length(), literal.length());
+			while(common<max&&child.label.charAt(common)==literal.charAt(common)) {
+				common++;
+			}
+			if(common<child.label.length()) {
+				Node split=new Node(child.label.substring(0, common));
+				child.label=child.label.substring(common);
+				split.addChild(child);
+				node.replaceChild(split);
+				child=split;
+			}
+			node=child;
+			literal=literal.substring(common);
+		}
+		return node;
+	}
+
+	/**
+	 * Splits a @Path value into literal strings and {@link Parameter}s.
+	 */
+	static List<Object> parse(String template) throws ServletException {
+		List<Object> tokens=new ArrayList<>();
+		int literalStart=0;
+		int i=0;
+		while(i<template.length()) {
+			char c=template.charAt(i);
+			if(c=='}') {
+				throw new ServletException("unbalanced } in @Path "+template);
+			}
+			if(c!='{') {
+				i++;
+				continue;
+			}
+			if(template.charAt(i-1)!='/') {
+				throw new ServletException("template parameter should occupy a whole path segment in @Path "+template);
+			}
+			tokens.add(template.substring(literalStart, i));
+			int depth=1;
+			int j=i+1;
+			while(j<template.length()&&depth>0) {
+				char d=template.charAt(j++);
+				if(d=='{') {
+					depth++;
+				}else if(d=='}') {
+					depth--;
+				}
+			}
+			if(depth>0) {
+				throw new ServletException("unbalanced { in @Path "+template);
+			}
+			if(j<template.length()&&template.charAt(j)!='/') {
+				throw new ServletException("template parameter should occupy a whole path segment in @Path "+template);
+			}
+			tokens.add(Parameter.parse(template, template.substring(i+1, j-1)));
+			literalStart=i=j;
+		}
+		if(literalStart<template.length()) {
+			tokens.add(template.substring(literalStart));
+		}
+		return tokens;
+	}
+
+	static boolean isTemplate(String path) {
+		return path.indexOf('{')!=-1;
+	}
+
+	static final class Parameter {
+		private static final Pattern NAME_PATTERN=Pattern.compile("\\w[\\w\\.-]*");
+		final String name;
+		final String regex;
+		final Pattern pattern;
+
+		private Parameter(String name, String regex, Pattern pattern) {
+			this.name=name;
+			this.regex=regex;
+			this.pattern=pattern;
+		}
+
+		static Parameter parse(String template, String param) throws ServletException {
+			int colon=param.indexOf(':');
+			String name=(colon==-1?param:param.substring(0, colon)).trim();
+			if(!NAME_PATTERN.matcher(name).matches()) {
+				throw new ServletException("illegal template parameter name '"+name+"' in @Path "+template);
+			}
+			if(colon==-1) {
+				return new Parameter(name, null, null);
+			}
+			String regex=param.substring(colon+1).trim();
+			if(regex.equals("[^/]+")) {
+				return new Parameter(name, null, null);
+			}
+			try {
+				return new Parameter(name, regex, Pattern.compile(regex));
+			} catch (PatternSyntaxException e) {
+				throw new ServletException("illegal regex of template parameter '"+name+"' in @Path "+template, e);
+			}
+		}
+	}
+
+	private static final class Node {
+		private String label;
+		private char[] indices=new char[0];
+		private Node[] children=new Node[0];
+		//regex parameters first, the default [^/]+ parameter last
+		private Node[] parameters;
+		private Parameter parameter;
+		private ResourceMethod[] group;
+
+		Node(String label) {
+			this.label=label;
+		}
+
+		Node getChild(char c) {
+			char[] indices=this.indices;
+			for(int i=0; i<indices.length; i++) {
+				if(indices[i]==c) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		void addChild(Node child) {
+			int n=indices.length;
+			char[] newIndices=new char[n+1];
+			System.arraycopy(indices, 0, newIndices, 0, n);
+			newIndices[n]=child.label.charAt(0);
+			Node[] newChildren=new Node[n+1];
+			System.arraycopy(children, 0, newChildren, 0, n);
+			newChildren[n]=child;
+			indices=newIndices;
+			children=newChildren;
+		}
+
+		void replaceChild(Node child) {
+			char c=child.label.charAt(0);
+			for(int i=0; i<indices.length; i++) {
+				if(indices[i]==c) {
+					children[i]=child;
+					return;
+				}
+			}
+		}
+
+		Node getOrCreateParameter(Parameter parameter) {
+			if(parameters==null) {
+				parameters=new Node[0];
+			}
+			for(Node node:parameters) {
+				String regex=node.parameter.regex;
+				if(regex==null?parameter.regex==null:regex.equals(parameter.regex)) {
+					return node;
+				}
+			}
+			Node node=new Node("");
+			node.parameter=parameter;
+			List<Node> list=new ArrayList<>();
+			for(Node p:parameters) {
+				if(p.parameter.regex!=null) {
+					list.add(p);
+				}
+			}
+			if(parameter.regex!=null) {
+				list.add(node);
+			}
+			for(Node p:parameters) {
+				if(p.parameter.regex==null) {
+					list.add(p);
+				}
+			}
+			if(parameter.regex==null) {
+				list.add(node);
+			}
+			parameters=list.toArray(new Node[list.size()]);
+			return node;
+		}
+	}
+}
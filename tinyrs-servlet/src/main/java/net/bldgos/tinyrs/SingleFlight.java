@@ -0,0 +1,70 @@
+package net.bldgos.tinyrs;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * Requests in progress of {@link Coalesce} resource methods by key. The first request of a key becomes the leader
+ * and runs the resource method, the following ones wait for its {@link Flight} until the leader lands it.
+ */
+final class SingleFlight {
+	private final ConcurrentHashMap<String,Flight> flights=new ConcurrentHashMap<>();
+
+	/**
+	 * @return a new flight if the caller is the leader, or the flight of the leader to wait for
+	 */
+	Flight join(String key, ResponseCapture capture) {
+		Flight flight=new Flight(key, capture);
+		Flight leading=flights.putIfAbsent(key, flight);
+		return leading==null?flight:leading;
+	}
+
+	/**
+	 * Completes with the captured response of the leader, or null if it cannot be shared.
+	 * As an AsyncListener it lands when the leader's AsyncContext completes.
+	 */
+	final class Flight extends CompletableFuture<CapturedResponse> implements AsyncListener {
+		private final String key;
+		private final ResponseCapture capture;
+
+		private Flight(String key, ResponseCapture capture) {
+			this.key=key;
+			this.capture=capture;
+			//waiting requests need not wait for a large body to be transferred
+			capture.setDiscardListener(()->land(false));
+		}
+
+		ResponseCapture getCapture() {
+			return capture;
+		}
+
+		/**
+		 * Lets new requests of the key run the resource method again and releases the waiting ones
+		 */
+		void land(boolean succeeded) {
+			flights.remove(key, this);
+			complete(succeeded?capture.getCaptured():null);
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			land(true);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			land(false);
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+}
@@ -0,0 +1,553 @@
+package net.bldgos.tinyrs;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Detaches a {@link VirtualThread} resource method from its request and response when the request times out.
+ * The container recycles both once the AsyncContext is completed, while a resource method ignoring the interrupt keeps running:
+ * afterwards its body reads and writes fail with an IOException, and its header, status and attribute changes are discarded.
+ * Detaching waits for a read or write in progress, a lock rather than synchronized so that virtual threads are not pinned.
+ */
+final class TimeoutGuard {
+	private final ReentrantLock ioLock=new ReentrantLock();
+	private boolean detached;
+
+	HttpServletRequest wrap(HttpServletRequest request) {
+		return new GuardedRequest(request);
+	}
+
+	HttpServletResponse wrap(HttpServletResponse response) {
+		return new GuardedResponse(response);
+	}
+
+	/**
+	 * Called before the AsyncContext is completed on timeout
+	 */
+	void detach() {
+		ioLock.lock();
+		try {
+			detached=true;
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	/**
+	 * Locks unless detached, the caller unlocks if true is returned
+	 */
+	private boolean enter() {
+		ioLock.lock();
+		if(detached) {
+			ioLock.unlock();
+			return false;
+		}
+		return true;
+	}
+
+	private void enterIO() throws IOException {
+		if(!enter()) {
+			throw new IOException("request timed out");
+		}
+	}
+
+	private class GuardedRequest extends HttpServletRequestWrapper {
+		private ServletInputStream input;
+		private BufferedReader reader;
+
+		GuardedRequest(HttpServletRequest request) {
+			super(request);
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			if(input==null) {
+				enterIO();
+				try {
+					input=new GuardedInputStream(super.getInputStream());
+				} finally {
+					ioLock.unlock();
+				}
+			}
+			return input;
+		}
+
+		@Override
+		public BufferedReader getReader() throws IOException {
+			if(reader==null) {
+				enterIO();
+				try {
+					reader=new BufferedReader(new GuardedReader(super.getReader()));
+				} finally {
+					ioLock.unlock();
+				}
+			}
+			return reader;
+		}
+
+		@Override
+		public void setAttribute(String name, Object o) {
+			if(enter()) {
+				try {
+					super.setAttribute(name, o);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void removeAttribute(String name) {
+			if(enter()) {
+				try {
+					super.removeAttribute(name);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+	}
+
+	private class GuardedInputStream extends ServletInputStream {
+		private final ServletInputStream input;
+
+		GuardedInputStream(ServletInputStream input) {
+			this.input=input;
+		}
+
+		@Override
+		public int read() throws IOException {
+			enterIO();
+			try {
+				return input.read();
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			enterIO();
+			try {
+				return input.read(b, off, len);
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			enterIO();
+			try {
+				return input.available();
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public boolean isFinished() {
+			return input.isFinished();
+		}
+
+		@Override
+		public boolean isReady() {
+			return input.isReady();
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener) {
+			throw new IllegalStateException("non-blocking reads are not supported by @VirtualThread resource methods");
+		}
+	}
+
+	private class GuardedReader extends Reader {
+		private final Reader reader;
+
+		GuardedReader(Reader reader) {
+			this.reader=reader;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			enterIO();
+			try {
+				return reader.read(cbuf, off, len);
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			enterIO();
+			try {
+				reader.close();
+			} finally {
+				ioLock.unlock();
+			}
+		}
+	}
+
+	private class GuardedResponse extends HttpServletResponseWrapper {
+		private ServletOutputStream output;
+		private PrintWriter writer;
+
+		GuardedResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if(output==null) {
+				enterIO();
+				try {
+					output=new GuardedOutputStream(super.getOutputStream());
+				} finally {
+					ioLock.unlock();
+				}
+			}
+			return output;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if(writer==null) {
+				enterIO();
+				try {
+					writer=new PrintWriter(new GuardedWriter(super.getWriter()));
+				} finally {
+					ioLock.unlock();
+				}
+			}
+			return writer;
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			enterIO();
+			try {
+				super.flushBuffer();
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			enterIO();
+			try {
+				super.sendError(sc, msg);
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			enterIO();
+			try {
+				super.sendError(sc);
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			enterIO();
+			try {
+				super.sendRedirect(location);
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			if(enter()) {
+				try {
+					super.setStatus(sc);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			if(enter()) {
+				try {
+					super.setHeader(name, value);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			if(enter()) {
+				try {
+					super.addHeader(name, value);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setIntHeader(String name, int value) {
+			if(enter()) {
+				try {
+					super.setIntHeader(name, value);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void addIntHeader(String name, int value) {
+			if(enter()) {
+				try {
+					super.addIntHeader(name, value);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setDateHeader(String name, long date) {
+			if(enter()) {
+				try {
+					super.setDateHeader(name, date);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void addDateHeader(String name, long date) {
+			if(enter()) {
+				try {
+					super.addDateHeader(name, date);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void addCookie(Cookie cookie) {
+			if(enter()) {
+				try {
+					super.addCookie(cookie);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setContentType(String type) {
+			if(enter()) {
+				try {
+					super.setContentType(type);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setCharacterEncoding(String charset) {
+			if(enter()) {
+				try {
+					super.setCharacterEncoding(charset);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setContentLength(int len) {
+			if(enter()) {
+				try {
+					super.setContentLength(len);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setContentLengthLong(long len) {
+			if(enter()) {
+				try {
+					super.setContentLengthLong(len);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setLocale(Locale loc) {
+			if(enter()) {
+				try {
+					super.setLocale(loc);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void setBufferSize(int size) {
+			if(enter()) {
+				try {
+					super.setBufferSize(size);
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void resetBuffer() {
+			if(enter()) {
+				try {
+					super.resetBuffer();
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public void reset() {
+			if(enter()) {
+				try {
+					super.reset();
+				} finally {
+					ioLock.unlock();
+				}
+			}
+		}
+	}
+
+	private class GuardedOutputStream extends ServletOutputStream {
+		private final ServletOutputStream output;
+
+		GuardedOutputStream(ServletOutputStream output) {
+			this.output=output;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			enterIO();
+			try {
+				output.write(b);
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			enterIO();
+			try {
+				output.write(b, off, len);
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			enterIO();
+			try {
+				output.flush();
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			enterIO();
+			try {
+				output.close();
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public boolean isReady() {
+			return output.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			throw new IllegalStateException("non-blocking writes are not supported by @VirtualThread resource methods");
+		}
+	}
+
+	private class GuardedWriter extends Writer {
+		private final Writer writer;
+
+		GuardedWriter(Writer writer) {
+			this.writer=writer;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			enterIO();
+			try {
+				writer.write(cbuf, off, len);
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			enterIO();
+			try {
+				writer.flush();
+			} finally {
+				ioLock.unlock();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			enterIO();
+			try {
+				writer.close();
+			} finally {
+				ioLock.unlock();
+			}
+		}
+	}
+}
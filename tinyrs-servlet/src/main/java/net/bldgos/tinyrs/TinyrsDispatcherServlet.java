@@ -5,20 +5,46 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.BaseStream;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.GenericServlet;
+import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
@@ -32,7 +58,6 @@ import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.HEAD;
-import javax.ws.rs.HttpMethod;
 import javax.ws.rs.OPTIONS;
 import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
@@ -43,10 +68,58 @@ import javax.ws.rs.core.MediaType;
 
 public abstract class TinyrsDispatcherServlet extends GenericServlet {
 	private static final long serialVersionUID = 3072968609000472207L;
+	/**
+	 * Request attribute holding the values of @Path template parameters as an unmodifiable Map&lt;String,String&gt;
+	 */
+	public static final String PATH_PARAMETERS_ATTRIBUTE="net.bldgos.tinyrs.pathParameters";
+	/**
+	 * Request attribute holding the MediaType selected from @Produces according to request header Accept
+	 */
+	public static final String NEGOTIATED_MEDIA_TYPE_ATTRIBUTE="net.bldgos.tinyrs.negotiatedMediaType";
 	private static List<Class<? extends Annotation>> HTTP_METHOD_ANNONTATIONS=Arrays.asList(GET.class,POST.class,PUT.class,DELETE.class,PATCH.class,HEAD.class,OPTIONS.class);
+	//ordinals of http methods, same order as HTTP_METHOD_ANNONTATIONS
+	private static final String[] HTTP_METHODS= {"GET","POST","PUT","DELETE","PATCH","HEAD","OPTIONS"};
+	private static final int GET_ORDINAL=0;
+	private static final int HEAD_ORDINAL=5;
+	private static final int HTTP_METHOD_COUNT=7;
+	private static final String BULKHEAD_INIT_PARAMETER_PREFIX="net.bldgos.tinyrs.bulkhead.";
+	private static final String ADAPTIVE_LIMIT_INIT_PARAMETER="net.bldgos.tinyrs.adaptiveLimit";
+	//set on a request re-dispatched after its leader's response could not be shared
+	private static final String COALESCE_BYPASS_ATTRIBUTE="net.bldgos.tinyrs.coalesceBypass";
+	private static final String RESPONSE_CACHE_SIZE_INIT_PARAMETER="net.bldgos.tinyrs.responseCache.maxBytes";
+	private static final long DEFAULT_RESPONSE_CACHE_SIZE=64*1024*1024;
+	private static final String VARIANT_CACHE_SIZE_INIT_PARAMETER="net.bldgos.tinyrs.compression.variantCache.maxBytes";
+	private static final long DEFAULT_VARIANT_CACHE_SIZE=16*1024*1024;
+	//negotiated encoding of a @Compress resource method responding uncompressed
+	private static final String IDENTITY_ENCODING="identity";
+	private static final int ENCODING_CACHE_SIZE=64;
+	private static final String MAX_ENTITY_SIZE_INIT_PARAMETER="net.bldgos.tinyrs.maxEntitySize";
+	private static final long DEFAULT_MAX_ENTITY_SIZE=1024*1024;
+	private static final String STREAM_BATCH_SIZE_INIT_PARAMETER="net.bldgos.tinyrs.stream.batchSize";
+	private static final String STREAM_FLUSH_BYTES_INIT_PARAMETER="net.bldgos.tinyrs.stream.flushBytes";
+	//binary encodings of JSON, produced and consumed alongside JSON when there is an EntityWriter or EntityReader for them
+	private static final String[] BINARY_MEDIA_TYPES={JacksonEntityWriter.APPLICATION_CBOR,JacksonEntityWriter.APPLICATION_SMILE};
 
 	private Logger LOGGER=Logger.getLogger(this.getClass().getName());
-	protected Map<String,List<ResourceMethod>> resourceMapping=new LinkedHashMap<>();
+	//path -> resource methods indexed by http method ordinal, frozen after init()
+	protected Map<String,ResourceMethod[]> resourceMapping=Collections.emptyMap();
+	//@Path templates, null if there is none
+	private RouteTrie routeTrie;
+	//all resource methods in registration order, frozen after init()
+	private List<ResourceMethod> resourceMethods=Collections.emptyList();
+	private final SingleFlight singleFlight=new SingleFlight();
+	//responses of @Cached resource methods, null if there is none
+	private ResponseCache responseCache;
+	//compressed files of @Compress resource methods, null if there is none
+	private VariantCache variantCache;
+	//raw Accept-Encoding header -> negotiated encoding
+	private final BoundedCache<String,String> encodingCache=new BoundedCache<>(ENCODING_CACHE_SIZE);
+	//writers of the entities returned by resource methods, in order of precedence, frozen after init()
+	private List<EntityWriter> entityWriters=Collections.emptyList();
+	//readers of the entity parameters of resource methods, in order of precedence, frozen after init()
+	private List<EntityReader> entityReaders=Collections.emptyList();
+	//default maximum bytes of an entity parameter
+	private long maxEntitySize=DEFAULT_MAX_ENTITY_SIZE;
 
 	@Override
 	public void init() throws ServletException {
@@ -58,66 +131,447 @@ public abstract class TinyrsDispatcherServlet extends GenericServlet {
 				}
 			}
 		}
-		for(Method method:this.getClass().getDeclaredMethods()) {
-			//detect resource method
-			List<String> httpMethods=new ArrayList<>();
-			for(Class<? extends Annotation> c:HTTP_METHOD_ANNONTATIONS) {
-				Annotation a=method.getAnnotation(c);
-				if(a!=null) {
-					httpMethods.add(a.annotationType().getAnnotation(HttpMethod.class).value());
+		entityWriters=Collections.unmodifiableList(new ArrayList<>(createEntityWriters()));
+		entityReaders=Collections.unmodifiableList(new ArrayList<>(createEntityReaders()));
+		maxEntitySize=getSizeParameter(MAX_ENTITY_SIZE_INIT_PARAMETER, DEFAULT_MAX_ENTITY_SIZE);
+		Map<String,ResourceMethod[]> mapping=new HashMap<>();
+		RouteTrie trie=new RouteTrie();
+		List<ResourceMethod> methods=new ArrayList<>();
+		RouteTable routeTable=loadRouteTable();
+		if(routeTable!=null) {//resource methods detected and validated at build time by tinyrs-processor
+			routeTable.registerRoutes((methodName, parameterTypes, httpMethods, path, consumes, produces, invoker)->{
+				Method method;
+				try {
+					method=this.getClass().getDeclaredMethod(methodName, parameterTypes);
+				} catch (NoSuchMethodException e) {
+					throw new ServletException("generated route table is out of date, missing resource method "+methodName, e);
 				}
+				List<Integer> httpMethodOrdinals=new ArrayList<>();
+				for(String httpMethod:httpMethods) {
+					httpMethodOrdinals.add(Arrays.asList(HTTP_METHODS).indexOf(httpMethod));
+				}
+				addResourceMethod(method, httpMethodOrdinals, path, consumes, produces, invoker, mapping, trie, methods);
+			});
+		}else {
+			for(Method method:this.getClass().getDeclaredMethods()) {
+				//detect resource method
+				List<Integer> httpMethodOrdinals=httpMethodOrdinalsOf(method);
+				//should be annotated with at least one of @GET @POST @PUT @DELETE @PATCH @OPTIONS @HEAD
+				if(httpMethodOrdinals.size()==0) {
+					continue;
+				}
+				//if annotated @Path present, its @Path value should start with /
+				Path pathAnno=method.getAnnotation(Path.class);
+				String path="/";
+				if(pathAnno!=null) {
+					path=pathAnno.value();
+					if(!path.startsWith("/")) {
+						throw new ServletException("value of @Path should start with /");
+					}
+				}
+				Consumes consumesAnno=method.getAnnotation(Consumes.class);
+				Produces producesAnno=method.getAnnotation(Produces.class);
+				addResourceMethod(method, httpMethodOrdinals, path, consumesAnno==null?null:consumesAnno.value(), producesAnno==null?null:producesAnno.value(), null, mapping, trie, methods);
 			}
-			//should be annotated with at least one of @GET @POST @PUT @DELETE @PATCH @OPTIONS @HEAD
-			if(httpMethods.size()==0) {
-				continue;
+		}
+		resourceMapping=Collections.unmodifiableMap(mapping);
+		routeTrie=trie.getMaxParameters()==0?null:trie;
+		resourceMethods=Collections.unmodifiableList(methods);
+		for(ResourceMethod resourceMethod:methods) {
+			if(resourceMethod.getCacheTtl()>0&&responseCache==null) {
+				responseCache=new ResponseCache(getSizeParameter(RESPONSE_CACHE_SIZE_INIT_PARAMETER, DEFAULT_RESPONSE_CACHE_SIZE));
 			}
-			ResourceMethod resourceMethod=new ResourceMethod();
-			//resource method should be public
-			if(!Modifier.isPublic(method.getModifiers())) {
-				throw new ServletException("resource method should be have modifier public");
-			}
-			//should return type void
-			if(!method.getReturnType().equals(Void.TYPE)) {
-				throw new ServletException("resource method should have return type void");
-			}
-			//should have 2 parameters (HttpServletRequest,HttpServletResponse)
-			Class<?>[] parameterTypes=method.getParameterTypes();
-			if(parameterTypes.length!=2||parameterTypes[0]!=HttpServletRequest.class||parameterTypes[1]!=HttpServletResponse.class) {
-				throw new ServletException("resource method should have 2 parameters (HttpServletRequest,HttpServletResponse)");
-			}
-			resourceMethod.setReflectedMethod(method);
-			//if annotated @Path present, its @Path value should start with /
-			Path pathAnno=method.getAnnotation(Path.class);
-			String path;
-			if(pathAnno==null) {
-				path="/";
-			}else {
-				path=pathAnno.value();
-				if(!path.startsWith("/")) {
-					throw new ServletException("value of @Path should start with /");
+			if(resourceMethod.getCompression()!=null&&variantCache==null) {
+				variantCache=new VariantCache(getSizeParameter(VARIANT_CACHE_SIZE_INIT_PARAMETER, DEFAULT_VARIANT_CACHE_SIZE));
+			}
+		}
+		LOGGER.info("tinyrs resouce servlet "+this.getClass().getName()+" initialized");
+	}
+
+	private static List<Integer> httpMethodOrdinalsOf(Method method) {
+		List<Integer> httpMethodOrdinals=new ArrayList<>();
+		for(int i=0; i<HTTP_METHOD_ANNONTATIONS.size(); i++) {
+			if(method.getAnnotation(HTTP_METHOD_ANNONTATIONS.get(i))!=null) {
+				httpMethodOrdinals.add(i);
+			}
+		}
+		return httpMethodOrdinals;
+	}
+	/**
+	 * @param path value of @Path, / if absent
+	 * @param consumes value of @Consumes, null if absent
+	 * @param produces value of @Produces, null if absent
+	 * @param invoker created from the method if null
+	 */
+	private void addResourceMethod(Method method, List<Integer> httpMethodOrdinals, String path, String[] consumes, String[] produces, ResourceInvoker invoker, Map<String,ResourceMethod[]> mapping, RouteTrie trie, List<ResourceMethod> methods) throws ServletException {
+		//resource method should be public
+		if(!Modifier.isPublic(method.getModifiers())) {
+			throw new ServletException("resource method should be have modifier public");
+		}
+		//a CompletionStage completes asynchronously, what is returned or completed with other than void is written by an EntityWriter
+		boolean async=CompletionStage.class.isAssignableFrom(method.getReturnType());
+		Type entityType=entityTypeOf(method, async);
+		boolean nonBlocking=method.isAnnotationPresent(NonBlocking.class);
+		if((async||entityType!=null)&&nonBlocking) {
+			throw new ServletException("@NonBlocking resource method should have return type void");
+		}
+		if(nonBlocking&&method.isAnnotationPresent(VirtualThread.class)) {
+			throw new ServletException("@NonBlocking resource method cannot run on a @VirtualThread");
+		}
+		Coalesce coalesceAnno=method.getAnnotation(Coalesce.class);
+		if(coalesceAnno!=null&&(nonBlocking||!httpMethodOrdinals.contains(GET_ORDINAL)||coalesceAnno.maxBytes()<=0)) {
+			throw new ServletException("@Coalesce resource method should be a blocking @GET method with positive maxBytes: "+method);
+		}
+		Cached cachedAnno=method.getAnnotation(Cached.class);
+		if(cachedAnno!=null&&(nonBlocking||!httpMethodOrdinals.contains(GET_ORDINAL)||cachedAnno.maxBytes()<=0||cachedAnno.ttl()<=0)) {
+			throw new ServletException("@Cached resource method should be a blocking @GET method with positive ttl and maxBytes: "+method);
+		}
+		ETag etagAnno=method.getAnnotation(ETag.class);
+		if(etagAnno!=null&&(nonBlocking||!httpMethodOrdinals.contains(GET_ORDINAL)||etagAnno.maxBytes()<=0)) {
+			throw new ServletException("@ETag resource method should be a blocking @GET method with positive maxBytes: "+method);
+		}
+		Compress compressAnno=method.getAnnotation(Compress.class);
+		if(compressAnno!=null&&(nonBlocking||compressAnno.minBytes()<0)) {
+			throw new ServletException("@Compress resource method should be blocking and have a non-negative minBytes: "+method);
+		}
+		if(compressAnno==null&&!nonBlocking) {
+			compressAnno=method.getDeclaringClass().getAnnotation(Compress.class);
+		}
+		Compression compression=compressAnno==null?null:new Compression(compressAnno.types(), compressAnno.minBytes());
+		//misses of a cached resource method are coalesced
+		int coalesceLimit=Math.max(coalesceAnno==null?0:coalesceAnno.maxBytes(), cachedAnno==null?0:cachedAnno.maxBytes());
+		boolean virtual=!nonBlocking&&(method.isAnnotationPresent(VirtualThread.class)||method.getDeclaringClass().isAnnotationPresent(VirtualThread.class));
+		if(virtual&&VirtualThreadExecutor.get()==null) {
+			LOGGER.info("virtual threads are not supported by this JVM, "+method+" runs on container threads");
+			virtual=false;
+		}
+		//should have parameters (HttpServletRequest,HttpServletResponse), optionally followed by bound parameters
+		Class<?>[] parameterTypes=method.getParameterTypes();
+		if(parameterTypes.length<2||parameterTypes[0]!=HttpServletRequest.class||parameterTypes[1]!=HttpServletResponse.class) {
+			throw new ServletException("resource method should have parameters (HttpServletRequest,HttpServletResponse) followed by bound parameters");
+		}
+		if(consumes!=null) {
+			for(int i=2; i<parameterTypes.length; i++) {
+				if(!ParameterBinding.isAnnotated(method, i)) {//entity parameter
+					Class<?> type=parameterTypes[i];
+					Type genericType=method.getGenericParameterTypes()[i];
+					consumes=withBinaryMediaTypes(consumes, mediaType->entityReaders.stream().anyMatch(reader->reader.isReadable(type, genericType, mediaType)));
+					break;
+				}
+			}
+		}
+		ResourceMethod[] group;
+		String[] pathParameterNames=null;
+		if(RouteTrie.isTemplate(path)) {
+			List<Object> tokens=RouteTrie.parse(path);
+			List<String> names=new ArrayList<>();
+			for(Object token:tokens) {
+				if(token instanceof RouteTrie.Parameter) {
+					String name=((RouteTrie.Parameter)token).name;
+					if(names.contains(name)) {
+						throw new ServletException("duplicate template parameter '"+name+"' in @Path "+path);
+					}
+					names.add(name);
 				}
 			}
-			resourceMethod.setPath(path);
-			Consumes consumesAnno=method.getAnnotation(Consumes.class);
-			resourceMethod.setConsumes(consumesAnno==null?null:consumesAnno.value());
-			Produces producesAnno=method.getAnnotation(Produces.class);
-			resourceMethod.setProduces(producesAnno==null?null:producesAnno.value());
-			List<ResourceMethod> group=resourceMapping.get(path);
+			pathParameterNames=names.toArray(new String[names.size()]);
+			group=trie.getOrCreateGroup(tokens, HTTP_METHOD_COUNT);
+		}else {
+			group=mapping.get(path);
 			if(group==null) {
-				group=new ArrayList<>();
-				resourceMapping.put(path, group);
-			}
-			for(int i=0; i<httpMethods.size(); i++) {
-				resourceMethod.setHttpMethod(httpMethods.get(i));
-				//path+httpMethod should be unique in a Servlet
-				int index=group.indexOf(resourceMethod);
-				if(index!=-1) {
-					throw new ServletException("There exists another java method with the same http method and path: "+group.get(index).getReflectedMethod());
+				group=new ResourceMethod[HTTP_METHOD_COUNT];
+				mapping.put(path, group);
+			}
+		}
+		if(invoker==null) {
+			invoker=parameterTypes.length==2?ResourceInvoker.of(method):ArgumentBinder.invoker(method, bindersOf(method, httpMethodOrdinals, nonBlocking, consumes, pathParameterNames));
+		}
+		ConcurrencyLimiter limiter=createConcurrencyLimiter(method);
+		for(int ordinal:httpMethodOrdinals) {
+			//path+httpMethod should be unique in a Servlet
+			if(group[ordinal]!=null) {
+				throw new ServletException("There exists another java method with the same http method and path: "+group[ordinal].getReflectedMethod());
+			}
+			ResourceMethod resourceMethod=new ResourceMethod(method, HTTP_METHODS[ordinal], path, consumes, produces);
+			resourceMethod.setPathParameterNames(pathParameterNames);
+			resourceMethod.setInvoker(invoker);
+			resourceMethod.setNonBlocking(nonBlocking);
+			resourceMethod.setAsync(async);
+			resourceMethod.setVirtual(virtual);
+			resourceMethod.setConcurrencyLimiter(limiter);
+			if(entityType!=null) {
+				resourceMethod.setEntityType(entityType);
+				if(produces!=null) {
+					resourceMethod.setProduces(withBinaryMediaTypes(produces, mediaType->selectEntityWriter(resourceMethod, mediaType)!=null));
 				}
-				group.add(new ResourceMethod(resourceMethod.getReflectedMethod(), resourceMethod.getHttpMethod(), resourceMethod.getPath(), resourceMethod.getConsumes(), resourceMethod.getProduces()));
+				resourceMethod.setEntityWriters(entityWritersOf(method, resourceMethod));
+			}
+			if(compression!=null&&compression.isApplicable(resourceMethod.getProduceTypes())) {
+				resourceMethod.setCompression(compression);
 			}
+			if(etagAnno!=null&&(ordinal==GET_ORDINAL||ordinal==HEAD_ORDINAL)) {
+				resourceMethod.setETagLimit(etagAnno.maxBytes());
+			}
+			//HEAD and other http methods sharing the java method are neither coalesced nor cached
+			if(ordinal==GET_ORDINAL) {
+				resourceMethod.setCoalesceLimit(coalesceLimit);
+				if(cachedAnno!=null) {
+					resourceMethod.setCacheTtl(TimeUnit.SECONDS.toNanos(cachedAnno.ttl()));
+					resourceMethod.setCacheMaxBytes(cachedAnno.maxBytes());
+				}
+			}
+			AsyncTimeout asyncTimeoutAnno=method.getAnnotation(AsyncTimeout.class);
+			//non-blocking transfers of slow clients are guarded by the connector's socket timeouts instead
+			resourceMethod.setAsyncTimeout(asyncTimeoutAnno!=null?asyncTimeoutAnno.value():resourceMethod.isNonBlocking()?0:-1);
+			group[ordinal]=resourceMethod;
+			methods.add(resourceMethod);
+		}
+	}
+	/**
+	 * @return limiter of the {@link Bulkhead} or {@link AdaptiveLimit} declared by annotation or init-param, shared by all http methods of the java method
+	 */
+	private ConcurrencyLimiter createConcurrencyLimiter(Method method) throws ServletException {
+		Bulkhead bulkheadAnno=method.getAnnotation(Bulkhead.class);
+		AdaptiveLimit adaptiveLimitAnno=method.getAnnotation(AdaptiveLimit.class);
+		if(bulkheadAnno!=null&&adaptiveLimitAnno!=null) {
+			throw new ServletException("resource method cannot have both @Bulkhead and @AdaptiveLimit: "+method);
+		}
+		int limit=bulkheadAnno==null?0:bulkheadAnno.value();
+		int retryAfter=bulkheadAnno==null?1:bulkheadAnno.retryAfter();
+		String initParameter=getServletConfig()==null?null:getInitParameter(BULKHEAD_INIT_PARAMETER_PREFIX+method.getName());
+		if(initParameter!=null) {
+			try {
+				limit=Integer.parseInt(initParameter.trim());
+			} catch (NumberFormatException e) {
+				throw new ServletException("illegal init-param "+BULKHEAD_INIT_PARAMETER_PREFIX+method.getName()+": "+initParameter);
+			}
+		}else if(bulkheadAnno==null) {
+			return createAdaptiveLimiter(method, adaptiveLimitAnno);
+		}
+		if(limit<=0) {
+			throw new ServletException("bulkhead limit should be positive: "+method);
+		}
+		return new ConcurrencyLimiter(limit, retryAfter);
+	}
+	private ConcurrencyLimiter createAdaptiveLimiter(Method method, AdaptiveLimit adaptiveLimitAnno) throws ServletException {
+		if(adaptiveLimitAnno==null) {
+			adaptiveLimitAnno=method.getDeclaringClass().getAnnotation(AdaptiveLimit.class);
+		}
+		if(adaptiveLimitAnno==null) {
+			if(getServletConfig()==null||!Boolean.parseBoolean(getInitParameter(ADAPTIVE_LIMIT_INIT_PARAMETER))) {
+				return null;
+			}
+			return new GradientLimiter(20, 1, 1000, 1);
+		}
+		int minLimit=adaptiveLimitAnno.minLimit();
+		int maxLimit=adaptiveLimitAnno.maxLimit();
+		int initialLimit=adaptiveLimitAnno.initialLimit();
+		if(minLimit<=0||maxLimit<minLimit||initialLimit<minLimit||initialLimit>maxLimit) {
+			throw new ServletException("adaptive limit should satisfy 0<minLimit<=initialLimit<=maxLimit: "+method);
+		}
+		return new GradientLimiter(initialLimit, minLimit, maxLimit, adaptiveLimitAnno.retryAfter());
+	}
+	private long getSizeParameter(String initParameterName, long defaultSize) throws ServletException {
+		String initParameter=getServletConfig()==null?null:getInitParameter(initParameterName);
+		if(initParameter==null) {
+			return defaultSize;
+		}
+		try {
+			long size=Long.parseLong(initParameter.trim());
+			if(size>0) {
+				return size;
+			}
+		} catch (NumberFormatException e) {
+		}
+		throw new ServletException("illegal init-param "+initParameterName+": "+initParameter);
+	}
+	/**
+	 * @return type of the entity returned by the resource method, null if there is none to write
+	 */
+	private static Type entityTypeOf(Method method, boolean async) {
+		if(!async) {
+			return method.getReturnType()==void.class?null:method.getGenericReturnType();
+		}
+		Type returnType=method.getGenericReturnType();
+		if(!(returnType instanceof ParameterizedType)) {//raw type
+			return null;
+		}
+		Type[] typeArguments=((ParameterizedType)returnType).getActualTypeArguments();
+		if(typeArguments.length!=1||typeArguments[0]==Void.class||typeArguments[0] instanceof WildcardType) {
+			return null;
+		}
+		return typeArguments[0];
+	}
+	/**
+	 * Appends the binary media types there is a codec of the entity for, e.g. application/cbor, to @Produces or @Consumes
+	 * values declaring JSON, so that a client may ask for them with Accept or Content-Type without the handler declaring them
+	 * @param codec tells if the entity can be written or read as a media type
+	 */
+	private static String[] withBinaryMediaTypes(String[] values, Predicate<MediaType> codec) {
+		MediaType[] declared=ContentNegotiation.parseMediaTypes(values);
+		if(!Arrays.stream(declared).anyMatch(ContentNegotiation::isJson)) {
+			return values;
+		}
+		List<String> extended=new ArrayList<>(Arrays.asList(values));
+		outer:for(String value:BINARY_MEDIA_TYPES) {
+			MediaType binaryType=MediaType.valueOf(value);
+			for(MediaType mediaType:declared) {
+				if(mediaType.getType().equals(binaryType.getType())&&mediaType.getSubtype().equals(binaryType.getSubtype())) {
+					continue outer;
+				}
+			}
+			if(codec.test(binaryType)) {
+				extended.add(value);
+			}
+		}
+		return extended.toArray(new String[extended.size()]);
+	}
+	/**
+	 * @return writers of the entity of the resource method indexed like its produce types, each of which must be writeable
+	 */
+	private EntityWriter[] entityWritersOf(Method method, ResourceMethod resourceMethod) throws ServletException {
+		MediaType[] produceTypes=resourceMethod.getProduceTypes();
+		if(produceTypes==null) {
+			produceTypes=new MediaType[] {MediaType.WILDCARD_TYPE};
+		}
+		EntityWriter[] writers=new EntityWriter[produceTypes.length];
+		for(int i=0; i<produceTypes.length; i++) {
+			writers[i]=selectEntityWriter(resourceMethod, produceTypes[i]);
+			if(writers[i]==null) {
+				throw new ServletException("no EntityWriter for return type "+resourceMethod.getEntityType().getTypeName()+" as "+produceTypes[i]+" of resource method "+method);
+			}
+		}
+		return writers;
+	}
+	/**
+	 * Resolves the binders of the parameters following (HttpServletRequest,HttpServletResponse): @PathParam,
+	 * @QueryParam and @HeaderParam ones, and at most one entity parameter without binding annotation
+	 */
+	private MethodHandle[] bindersOf(Method method, List<Integer> httpMethodOrdinals, boolean nonBlocking, String[] consumes, String[] pathParameterNames) throws ServletException {
+		MethodHandle[] binders=new MethodHandle[method.getParameterCount()-2];
+		boolean entity=false;
+		for(int i=0; i<binders.length; i++) {
+			ParameterBinding binding=ParameterBinding.of(method, i+2, pathParameterNames);
+			if(binding!=null) {
+				binders[i]=binding.binder();
+				continue;
+			}
+			if(entity) {
+				throw new ServletException("resource method should have at most one entity parameter without @PathParam, @QueryParam or @HeaderParam: "+method);
+			}
+			if(nonBlocking||httpMethodOrdinals.contains(GET_ORDINAL)||httpMethodOrdinals.contains(HEAD_ORDINAL)) {
+				throw new ServletException("entity parameter requires a blocking resource method other than @GET or @HEAD: "+method);
+			}
+			entity=true;
+			binders[i]=entityBinderOf(method, i+2, consumes);
+		}
+		return binders;
+	}
+	/**
+	 * @return binder of the entity parameter, reading the request body with the EntityReader of its Content-Type
+	 */
+	private MethodHandle entityBinderOf(Method method, int index, String[] consumes) throws ServletException {
+		Class<?> type=method.getParameterTypes()[index];
+		Type genericType=method.getGenericParameterTypes()[index];
+		MediaType[] consumeTypes=consumes==null?new MediaType[] {MediaType.WILDCARD_TYPE}:ContentNegotiation.parseMediaTypes(consumes);
+		EntityReader[] readers=new EntityReader[consumeTypes.length];
+		for(int i=0; i<consumeTypes.length; i++) {
+			for(EntityReader reader:entityReaders) {
+				if(reader.isReadable(type, genericType, consumeTypes[i])) {
+					readers[i]=reader;
+					break;
+				}
+			}
+			if(readers[i]==null) {
+				throw new ServletException("no EntityReader for parameter type "+genericType.getTypeName()+" as "+consumeTypes[i]+" of resource method "+method);
+			}
+		}
+		MaxEntitySize maxEntitySizeAnno=method.getAnnotation(MaxEntitySize.class);
+		if(maxEntitySizeAnno==null) {
+			maxEntitySizeAnno=method.getDeclaringClass().getAnnotation(MaxEntitySize.class);
+		}
+		long maxSize=maxEntitySizeAnno==null?maxEntitySize:maxEntitySizeAnno.value();
+		if(maxSize<=0) {
+			throw new ServletException("@MaxEntitySize should be positive: "+method);
+		}
+		return new EntityBinding(type, genericType, consumeTypes, readers, entityReaders, maxSize).binder();
+	}
+	private EntityWriter selectEntityWriter(ResourceMethod resourceMethod, MediaType mediaType) {
+		for(EntityWriter writer:entityWriters) {
+			if(writer.isWriteable(resourceMethod.getEntityClass(), resourceMethod.getEntityType(), mediaType)) {
+				return writer;
+			}
+		}
+		return null;
+	}
+	/**
+	 * Creates the writers of entities returned by resource methods, called once by init(). By default these are
+	 * the EntityWriter services registered in META-INF/services, followed by a {@link JacksonEntityWriter} if
+	 * jackson-databind is on the classpath, which flushes streamed entities as configured by the init-params
+	 * net.bldgos.tinyrs.stream.batchSize and net.bldgos.tinyrs.stream.flushBytes, and by JacksonEntityWriters of
+	 * CBOR and Smile if jackson-dataformat-cbor or jackson-dataformat-smile is on the classpath. Resource methods
+	 * producing JSON then produce application/cbor and application/x-jackson-smile too, at a lower precedence.
+	 * Subclasses may override it, e.g. to pass their own ObjectMapper.
+	 * @return writers in order of precedence
+	 */
+	protected List<EntityWriter> createEntityWriters() throws ServletException {
+		List<EntityWriter> writers=loadServices(EntityWriter.class);
+		if(isJacksonPresent()) {
+			int batchSize=(int)Math.min(Integer.MAX_VALUE, getSizeParameter(STREAM_BATCH_SIZE_INIT_PARAMETER, JacksonEntityWriter.DEFAULT_BATCH_SIZE));
+			int flushBytes=(int)Math.min(Integer.MAX_VALUE, getSizeParameter(STREAM_FLUSH_BYTES_INIT_PARAMETER, JacksonEntityWriter.DEFAULT_FLUSH_BYTES));
+			writers.add(new JacksonEntityWriter(batchSize, flushBytes));
+			JacksonDataFormats.addWriters(writers, batchSize, flushBytes);
+		}
+		return writers;
+	}
+	/**
+	 * Creates the readers of entity parameters of resource methods, called once by init(). By default these are
+	 * the EntityReader services registered in META-INF/services, followed by a {@link JacksonEntityReader} if
+	 * jackson-databind is on the classpath, and by JacksonEntityReaders of CBOR and Smile like for {@link #createEntityWriters()}.
+	 * Resource methods consuming JSON into an entity parameter then consume these binary media types too. Subclasses may override it, e.g. to pass their own ObjectMapper.
+	 * @return readers in order of precedence
+	 */
+	protected List<EntityReader> createEntityReaders() throws ServletException {
+		List<EntityReader> readers=loadServices(EntityReader.class);
+		if(isJacksonPresent()) {
+			readers.add(new JacksonEntityReader());
+			JacksonDataFormats.addReaders(readers);
+		}
+		return readers;
+	}
+	private <T> List<T> loadServices(Class<T> service) throws ServletException {
+		List<T> services=new ArrayList<>();
+		try {
+			for(T provider:ServiceLoader.load(service, this.getClass().getClassLoader())) {
+				services.add(provider);
+			}
+		} catch (ServiceConfigurationError e) {
+			throw new ServletException("cannot load "+service.getSimpleName()+" services", e);
+		}
+		return services;
+	}
+	private static boolean isJacksonPresent() {
+		try {
+			Class.forName("com.fasterxml.jackson.databind.ObjectMapper", false, TinyrsDispatcherServlet.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException|LinkageError e) {
+			//jackson-databind is optional
+			return false;
+		}
+	}
+	private RouteTable loadRouteTable() throws ServletException {
+		Class<?> servletClass=this.getClass();
+		Class<?> routeTableClass;
+		try {
+			routeTableClass=Class.forName(servletClass.getName()+RouteTable.CLASS_NAME_SUFFIX, true, servletClass.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		try {
+			return (RouteTable)routeTableClass.getConstructor().newInstance();
+		} catch (ReflectiveOperationException|ClassCastException e) {
+			throw new ServletException("cannot instantiate generated route table "+routeTableClass.getName(), e);
 		}
-		LOGGER.info("tinyrs resouce servlet "+this.getClass().getName()+" initialized");
 	}
 
 	@Override
@@ -128,73 +582,93 @@ public abstract class TinyrsDispatcherServlet extends GenericServlet {
 		HttpServletRequest request=(HttpServletRequest)req;
 		HttpServletResponse response=(HttpServletResponse)res;
 		String m=request.getMethod();
-		switch(m) {
-		case "GET":
-		case "POST":
-		case "PUT":
-		case "PATCH":
-		case "DELETE":
-		case "TRACE":
-		case "OPTIONS":
-			break;
-		case "HEAD":
-			response=new NoBodyResponse(response);
-			break;
-		default:
+		int ordinal=ordinalOf(m);
+		if(ordinal==-1&&!m.equals("TRACE")) {
 			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED);
-			break;
+			return;
+		}
+		if(ordinal==HEAD_ORDINAL) {
+			response=new NoBodyResponse(response);
 		}
 		// #1 matching phase
 		String pathInfo=request.getPathInfo();
-		List<ResourceMethod> group=null;
-		if(pathInfo==null||
-				(group=resourceMapping.get(pathInfo))==null) {
+		ResourceMethod[] group=null;
+		int[] parameterBounds=null;
+		if(pathInfo!=null) {
+			group=resourceMapping.get(pathInfo);
+			if(group==null&&routeTrie!=null) {
+				parameterBounds=new int[2*routeTrie.getMaxParameters()];
+				group=routeTrie.match(pathInfo, parameterBounds);
+			}
+		}
+		if(group==null) {
 			response.sendError(HttpServletResponse.SC_NOT_FOUND);
 			return;
 		}
-		ResourceMethod rm=new ResourceMethod();
-		rm.setHttpMethod(request.getMethod());
-		rm.setPath(pathInfo);
-		int index=group.indexOf(rm);
-		checkAgent:if(index==-1) {
-			switch(request.getMethod()) {
+		ResourceMethod resourceMethod=ordinal==-1?null:group[ordinal];
+		if(resourceMethod==null) {
+			switch(m) {
 			case "TRACE":
 				this.doTrace(request, response);
 				return;
 			case "OPTIONS":
-				this.doOptions(request, response);
+				this.doOptions(group, response);
 				return;
 			case "HEAD":
-				rm.setHttpMethod("GET");
-				index=group.indexOf(rm);
-				if(index==-1) {
+				resourceMethod=group[GET_ORDINAL];
+				if(resourceMethod==null) {
 					response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+					return;
 				}
-				break checkAgent;
+				break;
 			default:
 				response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
 				return;
 			}
 		}
-		ResourceMethod resourceMethod=group.get(index);
+		if(parameterBounds!=null) {
+			request.setAttribute(PATH_PARAMETERS_ATTRIBUTE, resourceMethod.getPathParameters(pathInfo, parameterBounds));
+		}
 		// #2 validating phase
-		List<MediaType> produceTypes=resourceMethod.getProduceTypes();
+		MediaType[] produceTypes=resourceMethod.getProduceTypes();
+		MediaType produceType=null;
 		if(produceTypes!=null) {//check request header Accept
-			List<MediaType> acceptTypes=parseAccept(request.getHeader("Accept"));
-			if(!produceTypes.stream().anyMatch((produceType)->acceptTypes.stream().anyMatch((acceptType)->acceptType.isCompatible(produceType)))) {
+			String accept=request.getHeader("Accept");
+			String cacheKey=accept==null?"":accept;
+			BoundedCache<String,MediaType> negotiationCache=resourceMethod.getNegotiationCache();
+			produceType=negotiationCache.get(cacheKey);
+			if(produceType==null) {
+				produceType=ContentNegotiation.select(produceTypes, accept);
+				negotiationCache.put(cacheKey, produceType);
+			}
+			if(produceType==ContentNegotiation.NOT_ACCEPTABLE) {
 				response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
 				return;
 			}
 		}
-		switch(request.getMethod()) {//check request header Content-Type
+		switch(m) {//check request header Content-Type
 		case "POST":
 		case "PUT":
 		case "PATCH":
 		case "DELETE":
-			List<MediaType> consumeTypes=resourceMethod.getConsumeTypes();
+			MediaType[] consumeTypes=resourceMethod.getConsumeTypes();
 			String contentType=request.getContentType();
 			if(consumeTypes!=null&&contentType!=null) {
-				if(!consumeTypes.stream().anyMatch((consumeType)->consumeType.isCompatible(MediaType.valueOf(contentType)))) {
+				MediaType requestType;
+				try {
+					requestType=MediaType.valueOf(contentType);
+				} catch (IllegalArgumentException e) {
+					response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+					return;
+				}
+				boolean consumable=false;
+				for(MediaType consumeType:consumeTypes) {
+					if(consumeType.isCompatible(requestType)) {
+						consumable=true;
+						break;
+					}
+				}
+				if(!consumable) {
 					response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
 					return;
 				}
@@ -202,33 +676,493 @@ public abstract class TinyrsDispatcherServlet extends GenericServlet {
 			break;
 		}
 		// #3 dispatching phase
-		String[] produces=resourceMethod.getProduces();
-		if(produces!=null&&produces.length==1) {//send response header Content-Type only when producing one MediaType
-			response.setContentType(produces[0]);
+		if(produceType!=null) {
+			if(produceTypes.length>1) {//caches must not mix up the variants
+				addVary(response, "Accept");
+			}
+			request.setAttribute(NEGOTIATED_MEDIA_TYPE_ATTRIBUTE, produceType);
+			if(ContentNegotiation.isConcrete(produceType)) {//send response header Content-Type only when negotiated a concrete MediaType
+				response.setContentType(produceType.toString());
+			}
 		}
+		String encoding=null;
+		Compression compression=resourceMethod.getCompression();
+		if(compression!=null&&(produceType==null||!ContentNegotiation.isConcrete(produceType)||compression.isCompressible(produceType.toString()))) {
+			String acceptEncoding=request.getHeader("Accept-Encoding");
+			encoding=acceptEncoding==null?null:encodingCache.get(acceptEncoding);
+			if(encoding==null) {
+				encoding=ContentNegotiation.selectEncoding(acceptEncoding);
+				encoding=encoding==null?IDENTITY_ENCODING:encoding;
+				if(acceptEncoding!=null) {
+					encodingCache.put(acceptEncoding, encoding);
+				}
+			}
+		}
+		if(ordinal==GET_ORDINAL&&resourceMethod.getCoalesceLimit()>0&&request.getAttribute(COALESCE_BYPASS_ATTRIBUTE)==null&&request.getHeader("Range")==null) {
+			coalesce(resourceMethod, ordinal, request, response, produceType, encoding);
+			return;
+		}
+		execute(resourceMethod, ordinal, request, response, encoding);
+	}
+	/**
+	 * Adds a request header name to response header Vary unless listed already,
+	 * a request re-dispatched after its leader's response could not be shared passes here twice.
+	 */
+	private static void addVary(HttpServletResponse response, String name) {
+		for(String value:response.getHeaders("Vary")) {
+			for(String listed:value.split(",")) {
+				listed=listed.trim();
+				if(listed.equals("*")||listed.equalsIgnoreCase(name)) {
+					return;
+				}
+			}
+		}
+		response.addHeader("Vary", name);
+	}
+	/**
+	 * Dispatches the request within the {@link Bulkhead} or {@link AdaptiveLimit} of the resource method, if any.
+	 */
+	private void execute(ResourceMethod resourceMethod, int ordinal, HttpServletRequest request, HttpServletResponse response, String encoding) throws ServletException, IOException {
+		ConcurrencyLimiter limiter=resourceMethod.getConcurrencyLimiter();
+		if(limiter==null) {
+			dispatch(resourceMethod, ordinal, request, response, encoding, null);
+			return;
+		}
+		ConcurrencyLimiter.Permit permit=limiter.tryAcquire();
+		if(permit==null) {//shed load instead of queuing
+			response.setIntHeader("Retry-After", limiter.getRetryAfter());
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		boolean failed=true;
 		try {
-			switch(request.getMethod()) {
-			case "HEAD":
-				NoBodyResponse noBodyResponse=new NoBodyResponse(response);
-				resourceMethod.getReflectedMethod().invoke(this, request, response);
-				noBodyResponse.setContentLength();
-				break;
-			default:
-				resourceMethod.getReflectedMethod().invoke(this, request, response);
-				break;
+			dispatch(resourceMethod, ordinal, request, response, encoding, permit);
+			failed=false;
+		} finally {
+			if(failed) {
+				permit.drop();
+			}else if(!request.isAsyncStarted()) {//otherwise released when the AsyncContext completes
+				permit.release();
+			}
+		}
+	}
+	/**
+	 * Replays the cached response of a {@link Cached} resource method, or runs the resource method once
+	 * for identical concurrent requests, see {@link Coalesce}.
+	 */
+	private void coalesce(ResourceMethod resourceMethod, int ordinal, HttpServletRequest request, HttpServletResponse response, MediaType produceType, String encoding) throws ServletException, IOException {
+		StringBuilder keyBuilder=new StringBuilder(request.getPathInfo());
+		if(request.getQueryString()!=null) {
+			keyBuilder.append('?').append(request.getQueryString());
+		}
+		//responses may depend on the credentials, only share them between requests of the same client
+		keyBuilder.append('\n').append(produceType).append('\n').append(encoding).append('\n').append(request.getHeader("Authorization")).append('\n').append(request.getHeader("Cookie"));
+		String key=keyBuilder.toString();
+		boolean cached=resourceMethod.getCacheTtl()>0;
+		long generation=0;
+		if(cached) {
+			CapturedResponse hit=responseCache.get(key);
+			if(hit!=null) {
+				resourceMethod.getCacheHits().increment();
+				hit.replay(request, response);
+				return;
+			}
+			resourceMethod.getCacheMisses().increment();
+			generation=responseCache.getGeneration();
+		}
+		SingleFlight.Flight flight=singleFlight.join(key, new ResponseCapture(response, resourceMethod.getCoalesceLimit()));
+		if(flight.getCapture().getResponse()==response) {//leader
+			if(cached) {
+				long startGeneration=generation;
+				flight.thenAccept(captured->{
+					if(captured!=null&&isCacheable(captured, resourceMethod)) {
+						responseCache.put(key, captured, resourceMethod.getCacheTtl(), startGeneration);
+					}
+				});
+			}
+			boolean failed=true;
+			try {
+				execute(resourceMethod, ordinal, request, flight.getCapture(), encoding);
+				failed=false;
+			} finally {
+				if(failed) {
+					flight.land(false);
+				}else if(request.isAsyncStarted()) {//lands when the AsyncContext completes
+					request.getAsyncContext().addListener(flight);
+				}else {
+					flight.land(true);
+				}
+			}
+			return;
+		}
+		if(!request.isAsyncSupported()) {
+			CapturedResponse captured;
+			try {
+				captured=flight.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ServletException(e);
+			} catch (ExecutionException e) {
+				captured=null;
+			}
+			if(captured==null) {
+				execute(resourceMethod, ordinal, request, response, encoding);
+			}else {
+				captured.replay(request, response);
+			}
+			return;
+		}
+		AsyncContext asyncContext=request.startAsync(request, response);
+		//replay on a container thread rather than on the leader's one, clients may be slow
+		flight.whenComplete((captured, failure)->asyncContext.start(()->{
+			if(captured==null) {
+				request.setAttribute(COALESCE_BYPASS_ATTRIBUTE, Boolean.TRUE);
+				asyncContext.dispatch();
+				return;
+			}
+			try {
+				captured.replay(request, response);
+			} catch (IOException e) {
+				//client is gone
+			} finally {
+				asyncContext.complete();
+			}
+		}));
+	}
+	private static boolean isCacheable(CapturedResponse captured, ResourceMethod resourceMethod) {
+		if(captured.getBodyLength()>resourceMethod.getCacheMaxBytes()) {
+			return false;
+		}
+		String cacheControl=captured.getHeader("Cache-Control");
+		return cacheControl==null||!(cacheControl.contains("no-store")||cacheControl.contains("private"));
+	}
+	/**
+	 * @param encoding negotiated content coding of a {@link Compress} resource method, null if the response is not compressible
+	 * @param permit of the {@link Bulkhead}, to be released by the AsyncContext if the request goes asynchronous
+	 */
+	private void dispatch(ResourceMethod resourceMethod, int ordinal, HttpServletRequest request, HttpServletResponse response, String encoding, ConcurrencyLimiter.Permit permit) throws ServletException, IOException {
+		//conditions of coalesced requests are evaluated when their shared response is replayed
+		boolean shared=response instanceof ResponseCapture;
+		if(IDENTITY_ENCODING.equals(encoding)) {
+			addVary(response, "Accept-Encoding");
+		}else if(encoding!=null) {
+			response=new CompressionResponse(response, resourceMethod.getCompression(), encoding, variantCache);
+		}
+		if(resourceMethod.getETagLimit()>0) {
+			response=new ETagResponse(response, resourceMethod.getETagLimit(), !shared);
+		}
+		//a @NonBlocking resource method completes the AsyncContext once its I/O callbacks are done,
+		//the dispatcher completes it when the CompletionStage returned by an async resource method is done
+		AsyncContext asyncContext=null;
+		if(resourceMethod.isNonBlocking()||resourceMethod.isAsync()||resourceMethod.isVirtual()) {
+			if(!request.isAsyncSupported()) {
+				throw new ServletException("asynchronous resource method requires asyncSupported=true: "+resourceMethod.getReflectedMethod());
+			}
+			asyncContext=request.startAsync(request, response);
+			if(permit!=null) {
+				asyncContext.addListener(permit);
+			}
+			if(resourceMethod.getAsyncTimeout()>=0) {
+				asyncContext.setTimeout(resourceMethod.getAsyncTimeout());
+			}
+		}
+		if(resourceMethod.isVirtual()) {
+			dispatchVirtual(asyncContext, resourceMethod, request, response);
+			return;
+		}
+		Object result;
+		try {
+			result=resourceMethod.getInvoker().invoke(this, request, response);
+		} catch (BindingException e) {
+			sendBindingError(request, response, e);
+			if(asyncContext!=null) {
+				asyncContext.complete();
+			}
+			return;
+		} catch (ServletException|IOException|RuntimeException e) {
+			throw e;
+		} catch (Exception e) {//checked exceptions declared by the resource method
+			throw new ServletException(e);
+		}
+		if(resourceMethod.isAsync()) {
+			completeAsync(asyncContext, resourceMethod, request, response, (CompletionStage<?>)result);
+			return;
+		}
+		if(!resourceMethod.isNonBlocking()) {
+			writeEntity(resourceMethod, request, response, result);
+			finishResponse(request, response);
+		}
+	}
+	/**
+	 * Invokes the resource method on a virtual thread, the AsyncContext is completed like for a returned CompletionStage.
+	 * The virtual thread is interrupted if the request times out meanwhile, and detached from the request and response
+	 * before the AsyncContext is completed, in case it ignores the interrupt.
+	 */
+	private void dispatchVirtual(AsyncContext asyncContext, ResourceMethod resourceMethod, HttpServletRequest request, HttpServletResponse response) {
+		CompletableFuture<Object> stage=new CompletableFuture<>();
+		TimeoutGuard guard=new TimeoutGuard();
+		HttpServletRequest guardedRequest=guard.wrap(request);
+		HttpServletResponse guardedResponse=guard.wrap(response);
+		try {
+			Future<?> task=VirtualThreadExecutor.get().submit(()->{
+				try {
+					Object result=resourceMethod.getInvoker().invoke(this, guardedRequest, guardedResponse);
+					if(resourceMethod.isAsync()) {
+						nonNull((CompletionStage<?>)result, request).whenComplete((value, failure)->{
+							if(failure!=null) {
+								stage.completeExceptionally(failure);
+							}else {
+								stage.complete(value);
+							}
+						});
+					}else {
+						stage.complete(result);
+					}
+				} catch (Throwable e) {
+					stage.completeExceptionally(e);
+				}
+			});
+			stage.whenComplete((value, failure)->{
+				if(failure instanceof CancellationException) {//timed out
+					task.cancel(true);
+					guard.detach();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			stage.completeExceptionally(e);
+		}
+		completeAsync(asyncContext, resourceMethod, request, response, stage);
+	}
+	private static CompletionStage<?> nonNull(CompletionStage<?> stage, HttpServletRequest request) {
+		if(stage!=null) {
+			return stage;
+		}
+		CompletableFuture<?> failed=new CompletableFuture<>();
+		failed.completeExceptionally(new ServletException("resource method returned null instead of a CompletionStage: "+request.getRequestURI()));
+		return failed;
+	}
+	/**
+	 * Completes the AsyncContext when the stage is done, or sends 503 and cancels the stage on timeout.
+	 */
+	private void completeAsync(AsyncContext asyncContext, ResourceMethod resourceMethod, HttpServletRequest request, HttpServletResponse response, CompletionStage<?> stage) {
+		stage=nonNull(stage, request);
+		CompletionStage<?> pending=stage;
+		AtomicBoolean done=new AtomicBoolean();
+		asyncContext.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				if(done.compareAndSet(false, true)) {
+					cancel(pending);
+					try {
+						if(!response.isCommitted()) {
+							response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+						}
+					} finally {
+						asyncContext.complete();
+					}
+				}
+			}
+			@Override
+			public void onError(AsyncEvent event) {
+				if(done.compareAndSet(false, true)) {
+					cancel(pending);
+				}
+			}
+			@Override
+			public void onComplete(AsyncEvent event) {
+			}
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		stage.whenComplete((value, failure)->{
+			if(!done.compareAndSet(false, true)) {//timed out or failed meanwhile
+				closeEntity(value);
+				return;
+			}
+			try {
+				Throwable cause=failure instanceof CompletionException&&failure.getCause()!=null?failure.getCause():failure;
+				if(cause==null) {
+					try {
+						writeEntity(resourceMethod, request, response, value);
+					} catch (ServletException|IOException|RuntimeException e) {
+						cause=e;
+					}
+				}
+				if(cause instanceof BindingException) {//of a resource method running on a virtual thread
+					sendBindingError(request, response, (BindingException)cause);
+				}else if(cause!=null) {
+					handleAsyncFailure(request, response, cause);
+				}else {
+					finishResponse(request, response);
+				}
+			} catch (Throwable e) {
+				LOGGER.log(Level.WARNING, "cannot complete asynchronous request "+request.getRequestURI(), e);
+			} finally {
+				asyncContext.complete();
 			}
-		} catch (IllegalAccessException e) {
-			e.printStackTrace();
-		} catch (IllegalArgumentException e) {
-			e.printStackTrace();
-		} catch (InvocationTargetException e) {
-			e.printStackTrace();
+		});
+	}
+	/**
+	 * Writes the entity returned by the resource method with the EntityWriter of the negotiated type,
+	 * or responds 204 No Content for a null entity. A streamed entity is closed afterwards, even if the client has gone.
+	 */
+	private void writeEntity(ResourceMethod resourceMethod, HttpServletRequest request, HttpServletResponse response, Object entity) throws ServletException, IOException {
+		if(resourceMethod.getEntityType()==null) {
+			return;
+		}
+		if(entity==null) {
+			if(!response.isCommitted()&&response.getStatus()==HttpServletResponse.SC_OK) {
+				response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			}
+			return;
+		}
+		try {
+			MediaType mediaType=(MediaType)request.getAttribute(NEGOTIATED_MEDIA_TYPE_ATTRIBUTE);
+			if(mediaType==null) {
+				mediaType=MediaType.WILDCARD_TYPE;
+			}
+			EntityWriter writer=resourceMethod.getEntityWriter(mediaType);
+			if(writer==null) {//a wildcard produce type narrowed down by Accept
+				writer=selectEntityWriter(resourceMethod, mediaType);
+				if(writer==null) {
+					response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
+					return;
+				}
+			}
+			writer.write(entity, resourceMethod.getEntityType(), mediaType, response);
+		} finally {
+			closeEntity(entity);
 		}
 	}
-	private void doOptions(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+	/**
+	 * Closes a Stream or a closeable Iterator returned by a resource method, releasing e.g. a database cursor
+	 */
+	private void closeEntity(Object entity) {
+		if(!(entity instanceof BaseStream)&&!(entity instanceof Iterator&&entity instanceof AutoCloseable)) {
+			return;
+		}
+		try {
+			((AutoCloseable)entity).close();
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "cannot close streamed entity", e);
+		}
+	}
+	/**
+	 * Sends what the response wrappers of the dispatcher held back, once the resource method is done
+	 */
+	private static void finishResponse(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		//from the innermost wrapper outwards, each may still write to the next
+		if(response instanceof ETagResponse) {
+			((ETagResponse)response).finish(request);
+			response=(HttpServletResponse)((ETagResponse)response).getResponse();
+		}
+		if(response instanceof CompressionResponse) {
+			((CompressionResponse)response).finish();
+			response=(HttpServletResponse)((CompressionResponse)response).getResponse();
+		}
+		if(response instanceof NoBodyResponse) {
+			((NoBodyResponse)response).setContentLength();
+		}
+	}
+	private static void cancel(CompletionStage<?> stage) {
+		try {
+			stage.toCompletableFuture().cancel(true);
+		} catch (UnsupportedOperationException e) {
+			//not cancellable
+		}
+	}
+	/**
+	 * Maps the exceptional completion of a CompletionStage returned by a resource method to an error response,
+	 * 500 by default. Subclasses may override it to map their own exceptions.
+	 */
+	protected void handleAsyncFailure(HttpServletRequest request, HttpServletResponse response, Throwable failure) throws IOException {
+		LOGGER.log(Level.SEVERE, "asynchronous resource method failed: "+request.getRequestURI(), failure);
+		if(!response.isCommitted()) {
+			request.setAttribute(RequestDispatcher.ERROR_EXCEPTION, failure);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		}
+	}
+	private void sendBindingError(HttpServletRequest request, HttpServletResponse response, BindingException e) throws IOException {
+		LOGGER.log(Level.FINE, "cannot bind arguments of "+request.getRequestURI(), e);
+		if(!response.isCommitted()) {
+			response.sendError(e.getStatus());
+		}
+	}
+	/**
+	 * Removes the cached responses of a {@link Cached} resource method path, e.g. after the resource changed.
+	 * Responses being computed meanwhile are not cached.
+	 * @param path path of the resource method relative to the servlet, with template parameters substituted
+	 */
+	public void invalidateCache(String path) {
+		if(responseCache!=null) {
+			responseCache.invalidate(path);
+		}
+	}
+	/**
+	 * Removes all cached responses
+	 */
+	public void invalidateCache() {
+		if(responseCache!=null) {
+			responseCache.clear();
+		}
+	}
+	/**
+	 * @return bytes held by cached responses
+	 */
+	public long getResponseCacheBytes() {
+		return responseCache==null?0:responseCache.getBytes();
+	}
+	/**
+	 * @return number of responses evicted or not admitted to the cache because of its size budget
+	 */
+	public long getResponseCacheEvictions() {
+		return responseCache==null?0:responseCache.getEvictions();
+	}
+	/**
+	 * @return current concurrency limits, in-flight and rejected request counts and cache hits of all resource methods
+	 */
+	public List<RouteMetrics> getRouteMetrics() {
+		List<RouteMetrics> metrics=new ArrayList<>(resourceMethods.size());
+		for(ResourceMethod resourceMethod:resourceMethods) {
+			metrics.add(new RouteMetrics(resourceMethod));
+		}
+		return metrics;
+	}
+	/**
+	 * @return value of the @Path template parameter, or null if the matched @Path has no such parameter
+	 */
+	@SuppressWarnings("unchecked")
+	protected static String getPathParameter(HttpServletRequest request, String name) {
+		Map<String,String> pathParameters=(Map<String,String>)request.getAttribute(PATH_PARAMETERS_ATTRIBUTE);
+		return pathParameters==null?null:pathParameters.get(name);
+	}
+	private static int ordinalOf(String httpMethod) {
+		switch(httpMethod) {
+		case "GET":
+			return 0;
+		case "POST":
+			return 1;
+		case "PUT":
+			return 2;
+		case "DELETE":
+			return 3;
+		case "PATCH":
+			return 4;
+		case "HEAD":
+			return 5;
+		case "OPTIONS":
+			return 6;
+		default:
+			return -1;
+		}
+	}
+	private void doOptions(ResourceMethod[] group, HttpServletResponse response) throws ServletException, IOException {
 		StringBuilder allow = new StringBuilder();
 		allow.append("OPTIONS");
-		for (ResourceMethod resourceMethod:resourceMapping.get(request.getPathInfo())) {
+		for (ResourceMethod resourceMethod:group) {
+			if(resourceMethod==null)
+				continue;
 			String httpMethod=resourceMethod.getHttpMethod();
 			allow.append(", ").append(httpMethod);
 			if(httpMethod.equals("PATCH")) {
@@ -259,25 +1193,47 @@ public abstract class TinyrsDispatcherServlet extends GenericServlet {
 			output.print(buffer.toString());
 		}
 	}
-	private static List<MediaType> parseAccept(String accept){
-		List<MediaType> types=new ArrayList<>();
-		if(accept==null)
-			return types;
-		for(String type:accept.split(", ?")) {
-			types.add(MediaType.valueOf(type));
-		}
-		return types;
-	}
 }
 
 class ResourceMethod {
+	private static final int NEGOTIATION_CACHE_SIZE=64;
 	private Method reflectedMethod;
+	private ResourceInvoker invoker;
 	private String httpMethod;
 	private String path;
 	private String[] consumes;
 	private String[] produces;
-	private transient List<MediaType> consumeTypes;
-	private transient List<MediaType> produceTypes;
+	private String[] pathParameterNames;
+	private boolean nonBlocking;
+	//returns a CompletionStage
+	private boolean async;
+	//runs on a virtual thread
+	private boolean virtual;
+	//null if there is no bulkhead
+	private ConcurrencyLimiter concurrencyLimiter;
+	//maximum bytes of a response replayed to coalesced requests, 0 if not coalesced
+	private int coalesceLimit;
+	//nanoseconds a response is cached, 0 if not cached
+	private long cacheTtl;
+	private int cacheMaxBytes;
+	private final LongAdder cacheHits=new LongAdder();
+	private final LongAdder cacheMisses=new LongAdder();
+	//maximum bytes of a response buffered to compute its ETag, 0 if there is no @ETag
+	private int etagLimit;
+	//null if responses are not compressed
+	private Compression compression;
+	//type of the returned entity, null if nothing is written
+	private Type entityType;
+	private Class<?> entityClass;
+	//writers of the entity indexed like produceTypes, or a single one without @Produces
+	private EntityWriter[] entityWriters;
+	//milliseconds, negative for the container default
+	private long asyncTimeout=-1;
+	//raw Accept header -> negotiated produce type
+	private final BoundedCache<String,MediaType> negotiationCache=new BoundedCache<>(NEGOTIATION_CACHE_SIZE);
+	private MediaType[] consumeTypes;
+	//sorted from the most specific to the least specific
+	private MediaType[] produceTypes;
 	
 	public ResourceMethod() {
 		
@@ -288,6 +1244,8 @@ class ResourceMethod {
 		this.path = path;
 		this.consumes = consumes;
 		this.produces = produces;
+		this.consumeTypes = consumes==null?null:ContentNegotiation.parseMediaTypes(consumes);
+		this.produceTypes = produces==null?null:ContentNegotiation.parseMediaTypes(produces);
 	}
 	
 	public Method getReflectedMethod() {
@@ -296,6 +1254,12 @@ class ResourceMethod {
 	public void setReflectedMethod(Method reflectedMethod) {
 		this.reflectedMethod = reflectedMethod;
 	}
+	public ResourceInvoker getInvoker() {
+		return invoker;
+	}
+	public void setInvoker(ResourceInvoker invoker) {
+		this.invoker = invoker;
+	}
 	public String getHttpMethod() {
 		return httpMethod;
 	}
@@ -313,65 +1277,144 @@ class ResourceMethod {
 	}
 	public void setConsumes(String[] consumes) {
 		this.consumes = consumes;
+		this.consumeTypes = consumes==null?null:ContentNegotiation.parseMediaTypes(consumes);
 	}
 	public String[] getProduces() {
 		return produces;
 	}
 	public void setProduces(String[] produces) {
 		this.produces = produces;
+		this.produceTypes = produces==null?null:ContentNegotiation.parseMediaTypes(produces);
 	}
-	public List<MediaType> getConsumeTypes() {
-		if(consumes==null)
-			return null;
-		List<MediaType> mediaTypes=consumeTypes;
-		if(mediaTypes!=null)
-			return mediaTypes;
-		synchronized (consumes) {
-			mediaTypes=consumeTypes;
-			if(mediaTypes!=null)
-				return mediaTypes;
-			mediaTypes=new ArrayList<>();
-			for(String consume:consumes) {
-				mediaTypes.add(MediaType.valueOf(consume));
-			}
-			this.consumeTypes=mediaTypes;
-			return mediaTypes;
-		}
-	}
-	public List<MediaType> getProduceTypes() {
-		if(produces==null)
-			return null;
-		List<MediaType> mediaTypes=produceTypes;
-		if(mediaTypes!=null)
-			return mediaTypes;
-		synchronized (produces) {
-			mediaTypes=produceTypes;
-			if(mediaTypes!=null)
-				return mediaTypes;
-			mediaTypes=new ArrayList<>();
-			for(String consume:produces) {
-				mediaTypes.add(MediaType.valueOf(consume));
+	public String[] getPathParameterNames() {
+		return pathParameterNames;
+	}
+	public void setPathParameterNames(String[] pathParameterNames) {
+		this.pathParameterNames = pathParameterNames;
+	}
+	public Map<String,String> getPathParameters(String path, int[] bounds) {
+		if(pathParameterNames==null)
+			return Collections.emptyMap();
+		Map<String,String> pathParameters=new HashMap<>();
+		for(int i=0; i<pathParameterNames.length; i++) {
+			pathParameters.put(pathParameterNames[i], path.substring(bounds[2*i], bounds[2*i+1]));
+		}
+		return Collections.unmodifiableMap(pathParameters);
+	}
+	public boolean isNonBlocking() {
+		return nonBlocking;
+	}
+	public void setNonBlocking(boolean nonBlocking) {
+		this.nonBlocking = nonBlocking;
+	}
+	public boolean isAsync() {
+		return async;
+	}
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+	public boolean isVirtual() {
+		return virtual;
+	}
+	public void setVirtual(boolean virtual) {
+		this.virtual = virtual;
+	}
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+	public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+	public int getCoalesceLimit() {
+		return coalesceLimit;
+	}
+	public void setCoalesceLimit(int coalesceLimit) {
+		this.coalesceLimit = coalesceLimit;
+	}
+	public Compression getCompression() {
+		return compression;
+	}
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+	public Type getEntityType() {
+		return entityType;
+	}
+	public void setEntityType(Type entityType) {
+		this.entityType = entityType;
+		this.entityClass = rawTypeOf(entityType);
+	}
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+	public void setEntityWriters(EntityWriter[] entityWriters) {
+		this.entityWriters = entityWriters;
+	}
+	/**
+	 * @param mediaType negotiated produce type
+	 * @return writer selected at init(), null if the type was narrowed down from a wildcard produce type
+	 */
+	public EntityWriter getEntityWriter(MediaType mediaType) {
+		if(produceTypes==null) {
+			return entityWriters[0];
+		}
+		for(int i=0; i<produceTypes.length; i++) {
+			if(produceTypes[i]==mediaType) {
+				return entityWriters[i];
 			}
-			this.produceTypes=mediaTypes;
-			return mediaTypes;
 		}
+		return null;
 	}
-	@Override
-	public boolean equals(Object obj) {
-		if(obj instanceof ResourceMethod) {
-			ResourceMethod that=(ResourceMethod)obj;
-			return this.path.equals(that.path)&&
-					this.httpMethod.equals(that.httpMethod);
+	private static Class<?> rawTypeOf(Type type) {
+		if(type instanceof Class) {
+			return (Class<?>)type;
 		}
-		return false;
+		if(type instanceof ParameterizedType) {
+			return (Class<?>)((ParameterizedType)type).getRawType();
+		}
+		if(type instanceof GenericArrayType) {
+			return Array.newInstance(rawTypeOf(((GenericArrayType)type).getGenericComponentType()), 0).getClass();
+		}
+		return Object.class;//type variable
 	}
-	@Override
-	public int hashCode() {
-		return this.path.hashCode()+this.httpMethod.hashCode();
+	public int getETagLimit() {
+		return etagLimit;
 	}
-	@Override
-	protected Object clone() throws CloneNotSupportedException {
-		return new ResourceMethod(reflectedMethod, httpMethod, path, consumes, produces);
+	public void setETagLimit(int etagLimit) {
+		this.etagLimit = etagLimit;
+	}
+	public long getCacheTtl() {
+		return cacheTtl;
+	}
+	public void setCacheTtl(long cacheTtl) {
+		this.cacheTtl = cacheTtl;
+	}
+	public int getCacheMaxBytes() {
+		return cacheMaxBytes;
+	}
+	public void setCacheMaxBytes(int cacheMaxBytes) {
+		this.cacheMaxBytes = cacheMaxBytes;
+	}
+	public LongAdder getCacheHits() {
+		return cacheHits;
+	}
+	public LongAdder getCacheMisses() {
+		return cacheMisses;
+	}
+	public long getAsyncTimeout() {
+		return asyncTimeout;
+	}
+	public void setAsyncTimeout(long asyncTimeout) {
+		this.asyncTimeout = asyncTimeout;
+	}
+	public BoundedCache<String,MediaType> getNegotiationCache() {
+		return negotiationCache;
+	}
+	public MediaType[] getConsumeTypes() {
+		return consumeTypes;
+	}
+	public MediaType[] getProduceTypes() {
+		return produceTypes;
 	}
 }
 
@@ -511,11 +1554,16 @@ class NoBodyOutputStream extends ServletOutputStream {
 		contentLength += len;
 	}
 
+	//discarding never blocks
 	public boolean isReady() {
-		return false;
+		return true;
 	}
 
 	public void setWriteListener(WriteListener writeListener) {
-
+		try {
+			writeListener.onWritePossible();
+		} catch (IOException|RuntimeException e) {
+			writeListener.onError(e);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package net.bldgos.tinyrs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU cache of compressed bodies bounded in bytes, keyed by strong ETag and content coding. A strong ETag identifies
+ * the exact bytes of a representation, so a compressed body can be reused for as long as the ETag stays the same.
+ */
+final class VariantCache {
+	private final long maxBytes;
+	private final LinkedHashMap<String,byte[]> variants=new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+
+	VariantCache(long maxBytes) {
+		this.maxBytes=maxBytes;
+	}
+
+	/**
+	 * @return maximum size of one variant, so that a few large files cannot take the whole cache
+	 */
+	int getMaxEntryBytes() {
+		return (int)Math.min(Integer.MAX_VALUE, maxBytes/8);
+	}
+
+	synchronized byte[] get(String etag, String encoding) {
+		return variants.get(etag+encoding);
+	}
+
+	synchronized void put(String etag, String encoding, byte[] variant) {
+		if(variant.length>getMaxEntryBytes()) {
+			return;
+		}
+		byte[] previous=variants.put(etag+encoding, variant);
+		bytes+=variant.length-(previous==null?0:previous.length);
+		for(Iterator<byte[]> eldest=variants.values().iterator(); bytes>maxBytes;) {
+			bytes-=eldest.next().length;
+			eldest.remove();
+		}
+	}
+}
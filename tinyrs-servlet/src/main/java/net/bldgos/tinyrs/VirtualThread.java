@@ -0,0 +1,20 @@
+package net.bldgos.tinyrs;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Runs a resource method, or all resource methods of a servlet class, on a virtual thread under an AsyncContext,
+ * so that blocking I/O in the method does not hold a container thread. Requires JDK 21 and asyncSupported=true,
+ * on older JVMs the resource methods run on the container thread as usual.
+ * Exceptions thrown by the method are handled by {@link TinyrsDispatcherServlet#handleAsyncFailure}, the timeout is set by {@link AsyncTimeout}.
+ * Not applicable to {@link NonBlocking} resource methods.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface VirtualThread {
+}
@@ -0,0 +1,20 @@
+package net.bldgos.tinyrs;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Provides the executor running {@link VirtualThread} resource methods. Virtual threads need JDK 21,
+ * this baseline version provides none, the one in META-INF/versions/21 of the multi-release jar replaces it.
+ */
+final class VirtualThreadExecutor {
+
+	private VirtualThreadExecutor() {
+	}
+
+	/**
+	 * @return executor starting a virtual thread per task, or null if the JVM does not support virtual threads
+	 */
+	static ExecutorService get() {
+		return null;
+	}
+}
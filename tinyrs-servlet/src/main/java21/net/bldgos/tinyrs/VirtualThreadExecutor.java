@@ -0,0 +1,21 @@
+package net.bldgos.tinyrs;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides the executor running {@link VirtualThread} resource methods, JDK 21 version of the multi-release jar.
+ */
+final class VirtualThreadExecutor {
+	private static final ExecutorService EXECUTOR=Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("tinyrs-virtual-", 0).factory());
+
+	private VirtualThreadExecutor() {
+	}
+
+	/**
+	 * @return executor starting a virtual thread per task
+	 */
+	static ExecutorService get() {
+		return EXECUTOR;
+	}
+}
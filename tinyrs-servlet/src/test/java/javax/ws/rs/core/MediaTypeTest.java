@@ -0,0 +1,80 @@
+package javax.ws.rs.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MediaTypeTest {
+
+	@Test
+	public void constantsAreCanonical() {
+		assertSame(MediaType.APPLICATION_JSON_TYPE, MediaType.valueOf("application/json"));
+		assertSame(MediaType.APPLICATION_JSON_TYPE, MediaType.valueOf("Application/JSON"));
+		assertSame(MediaType.WILDCARD_TYPE, MediaType.valueOf("*/*"));
+	}
+
+	@Test
+	public void typesWithParametersAreNotCanonicalized() {
+		MediaType mediaType=MediaType.valueOf("application/json;charset=utf-8");
+		assertNotSame(MediaType.APPLICATION_JSON_TYPE, mediaType);
+		assertEquals("utf-8", mediaType.getParameters().get("charset"));
+	}
+
+	@Test
+	public void clientStringsDoNotDisableCanonicalization() {
+		for(int i=0; i<2000; i++) {
+			MediaType.valueOf("x-junk/t"+i);
+		}
+		assertSame(MediaType.TEXT_PLAIN_TYPE, MediaType.valueOf("TEXT/plain"));
+	}
+
+	@Test
+	public void equalInstancesHaveEqualHashCodes() {
+		MediaType a=MediaType.valueOf("application/vnd.a+json; q=0.5");
+		MediaType b=MediaType.valueOf("application/vnd.a+json;q=0.5");
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+	}
+
+	@Test
+	public void parsesParametersWithWhitespaceAndQuotedValues() {
+		MediaType mediaType=MediaType.valueOf(" text/plain ;\tCharset = \"utf-8\" ; a=\"x\\\"y;z\";b=c ");
+		assertEquals("text", mediaType.getType());
+		assertEquals("plain", mediaType.getSubtype());
+		Map<String,String> parameters=mediaType.getParameters();
+		assertEquals(3, parameters.size());
+		assertEquals("utf-8", parameters.get("charset"));
+		assertEquals("utf-8", parameters.get("CHARSET"));
+		assertEquals("x\"y;z", parameters.get("a"));
+		assertEquals("c", parameters.get("b"));
+		assertEquals(mediaType, MediaType.valueOf(mediaType.toString()));
+	}
+
+	@Test
+	public void parsesLoneWildcardAndEmptyParameters() {
+		assertTrue(MediaType.valueOf("*").isWildcardType());
+		assertTrue(MediaType.valueOf("*").isWildcardSubtype());
+		assertSame(MediaType.TEXT_PLAIN_TYPE, MediaType.valueOf("text/plain;"));
+		assertSame(MediaType.TEXT_PLAIN_TYPE, MediaType.valueOf("text/plain ; ;"));
+		assertEquals("1", MediaType.valueOf("text/plain;;a=1").getParameters().get("a"));
+	}
+
+	@Test
+	public void rejectsMalformedMediaTypes() {
+		String[] malformed={null, "", " ", "text", "text/", "/plain", "text/pl ain", "text/plain x", "text/plain;charset",
+				"text/plain;charset=", "text/plain;=utf-8", "text/plain;a=\"b", "text/plain;a=\"b\"c", "text/plain;a=b c", "te(xt/plain"};
+		for(String s:malformed) {
+			try {
+				MediaType.valueOf(s);
+				fail(s);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+}
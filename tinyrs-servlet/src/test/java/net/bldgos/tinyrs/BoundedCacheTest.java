@@ -0,0 +1,83 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+	@Test
+	public void keepsEntriesUntilFull() {
+		BoundedCache<String,Integer> cache=new BoundedCache<>(4);
+		for(int i=0; i<4; i++) {
+			cache.put("k"+i, i);
+		}
+		for(int i=0; i<4; i++) {
+			assertEquals(Integer.valueOf(i), cache.get("k"+i));
+		}
+	}
+
+	@Test
+	public void evictsOneEntryPerPutWhenFull() {
+		BoundedCache<String,Integer> cache=new BoundedCache<>(8);
+		for(int i=0; i<8; i++) {
+			cache.put("k"+i, i);
+		}
+		cache.put("new", 8);
+		assertEquals(Integer.valueOf(8), cache.get("new"));
+		assertEquals(7, present(cache, 8));
+	}
+
+	@Test
+	public void rotatingKeysDoNotFlushEverything() {
+		BoundedCache<String,Integer> cache=new BoundedCache<>(64);
+		for(int i=0; i<64; i++) {
+			cache.put("k"+i, i);
+		}
+		for(int i=0; i<16; i++) {
+			cache.put("junk"+i, i);
+		}
+		//16 random evictions leave at least 48 of the original entries
+		assertTrue(present(cache, 64)>=48);
+	}
+
+	@Test
+	public void sizeStaysBounded() {
+		BoundedCache<String,Integer> cache=new BoundedCache<>(16);
+		for(int i=0; i<10000; i++) {
+			cache.put("k"+i, i);
+		}
+		int present=0;
+		for(int i=0; i<10000; i++) {
+			if(cache.get("k"+i)!=null) {
+				present++;
+			}
+		}
+		assertTrue(present<=16);
+		assertEquals(Integer.valueOf(9999), cache.get("k9999"));
+	}
+
+	@Test
+	public void putOfPresentKeyEvictsNothing() {
+		BoundedCache<String,Integer> cache=new BoundedCache<>(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertEquals(Integer.valueOf(2), cache.get("b"));
+		assertNull(cache.get("c"));
+	}
+
+	private static int present(BoundedCache<String,Integer> cache, int n) {
+		int present=0;
+		for(int i=0; i<n; i++) {
+			if(cache.get("k"+i)!=null) {
+				present++;
+			}
+		}
+		return present;
+	}
+}
@@ -0,0 +1,156 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class CompressionResponseTest {
+	private static final int MIN_BYTES=100;
+	private final Compression compression=new Compression(new String[] {"text/*", "application/*+json"}, MIN_BYTES);
+	private final VariantCache variantCache=new VariantCache(1<<20);
+
+	private static byte[] body(int length) {
+		byte[] body=new byte[length];
+		Arrays.fill(body, (byte)'a');
+		return body;
+	}
+
+	private static byte[] gunzip(byte[] data) throws IOException {
+		return readAll(new GZIPInputStream(new ByteArrayInputStream(data)));
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		byte[] b=new byte[1024];
+		int n;
+		while((n=input.read(b))!=-1) {
+			out.write(b, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private CompressionResponse wrap(ServletMocks.Response response, String contentType) {
+		HttpServletResponse proxy=response.proxy();
+		proxy.setContentType(contentType);
+		return new CompressionResponse(proxy, compression, "gzip", variantCache);
+	}
+
+	@Test
+	public void sendsBodyBelowMinBytesUncompressed() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		CompressionResponse compressionResponse=wrap(response, "text/plain");
+		compressionResponse.getOutputStream().write(body(MIN_BYTES-1));
+		compressionResponse.finish();
+		assertNull(response.header("Content-Encoding"));
+		assertEquals("Accept-Encoding", response.header("Vary"));
+		assertEquals(MIN_BYTES-1, response.contentLength);
+		assertArrayEquals(body(MIN_BYTES-1), response.body.toByteArray());
+	}
+
+	@Test
+	public void compressesBodyOfMinBytes() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		CompressionResponse compressionResponse=wrap(response, "text/plain");
+		ServletOutputStream output=compressionResponse.getOutputStream();
+		for(int i=0; i<MIN_BYTES; i++) {
+			output.write('a');
+		}
+		compressionResponse.finish();
+		assertEquals("gzip", response.header("Content-Encoding"));
+		assertEquals(-1, response.contentLength);
+		assertArrayEquals(body(MIN_BYTES), gunzip(response.body.toByteArray()));
+	}
+
+	@Test
+	public void decidesFromDeclaredLengthWhenBodyExceedsPendingBytes() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		CompressionResponse compressionResponse=wrap(response, "text/plain");
+		compressionResponse.setContentLength(MIN_BYTES/2);
+		//a resource method flushing early leaves only the declared length to decide on
+		compressionResponse.getOutputStream().write(body(10));
+		compressionResponse.flushBuffer();
+		compressionResponse.getOutputStream().write(body(MIN_BYTES/2-10));
+		compressionResponse.finish();
+		assertNull(response.header("Content-Encoding"));
+		assertEquals(MIN_BYTES/2, response.contentLength);
+		response=new ServletMocks.Response();
+		compressionResponse=wrap(response, "text/plain");
+		compressionResponse.setContentLength(10*MIN_BYTES);
+		compressionResponse.getOutputStream().write(body(10));
+		compressionResponse.flushBuffer();
+		compressionResponse.getOutputStream().write(body(10*MIN_BYTES-10));
+		compressionResponse.finish();
+		assertEquals("gzip", response.header("Content-Encoding"));
+		assertEquals(-1, response.contentLength);
+		assertArrayEquals(body(10*MIN_BYTES), gunzip(response.body.toByteArray()));
+	}
+
+	@Test
+	public void sendsIncompressibleTypesAndErrorsUncompressed() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		CompressionResponse compressionResponse=wrap(response, "image/png");
+		compressionResponse.getOutputStream().write(body(10*MIN_BYTES));
+		compressionResponse.finish();
+		assertNull(response.header("Content-Encoding"));
+		assertEquals(10*MIN_BYTES, response.body.size());
+		response=new ServletMocks.Response();
+		compressionResponse=wrap(response, "text/plain");
+		compressionResponse.setStatus(HttpServletResponse.SC_NOT_FOUND);
+		compressionResponse.getOutputStream().write(body(10*MIN_BYTES));
+		compressionResponse.finish();
+		assertNull(response.header("Content-Encoding"));
+	}
+
+	@Test
+	public void suffixesStrongETagAndReusesVariant() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		CompressionResponse compressionResponse=wrap(response, "application/vnd.x+json");
+		compressionResponse.setHeader("ETag", "\"v1\"");
+		compressionResponse.getOutputStream().write(body(10*MIN_BYTES));
+		compressionResponse.finish();
+		assertEquals("\"v1-gzip\"", response.header("ETag"));
+		byte[] compressed=response.body.toByteArray();
+		//the next response for the same entity replays the cached variant instead of compressing again
+		response=new ServletMocks.Response();
+		compressionResponse=wrap(response, "application/vnd.x+json");
+		assertTrue(CompressionResponse.sendVariant(compressionResponse, "\"v1\"", "application/vnd.x+json"));
+		compressionResponse.getOutputStream().write(body(10*MIN_BYTES));
+		compressionResponse.finish();
+		assertEquals("gzip", response.header("Content-Encoding"));
+		assertEquals("\"v1-gzip\"", response.header("ETag"));
+		assertEquals(compressed.length, response.contentLength);
+		assertArrayEquals(compressed, response.body.toByteArray());
+		//another entity tag or coding is not served from the cache
+		assertFalse(CompressionResponse.sendVariant(wrap(new ServletMocks.Response(), "application/vnd.x+json"), "\"v2\"", "application/vnd.x+json"));
+		assertFalse(CompressionResponse.sendVariant(new CompressionResponse(new ServletMocks.Response().proxy(), compression, "deflate", variantCache), "\"v1\"", "application/vnd.x+json"));
+	}
+
+	@Test
+	public void keepsWeakETagAndDoesNotCacheIt() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		CompressionResponse compressionResponse=new CompressionResponse(response.proxy(), compression, "deflate", variantCache);
+		compressionResponse.setContentType("text/html");
+		compressionResponse.setHeader("ETag", "W/\"v1\"");
+		compressionResponse.getOutputStream().write(body(10*MIN_BYTES));
+		compressionResponse.finish();
+		assertEquals("deflate", response.header("Content-Encoding"));
+		assertEquals("W/\"v1\"", response.header("ETag"));
+		assertArrayEquals(body(10*MIN_BYTES), readAll(new InflaterInputStream(new ByteArrayInputStream(response.body.toByteArray()))));
+		assertNull(variantCache.get("W/\"v1\"", "deflate"));
+	}
+}
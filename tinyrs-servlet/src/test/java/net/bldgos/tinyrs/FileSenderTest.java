@@ -0,0 +1,143 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSenderTest {
+	@Rule
+	public TemporaryFolder folder=new TemporaryFolder();
+	private File file;
+	private byte[] content;
+
+	@Before
+	public void createFile() throws IOException {
+		content=new byte[1000];
+		for(int i=0; i<content.length; i++) {
+			content[i]=(byte)i;
+		}
+		file=folder.newFile("data.bin");
+		Files.write(file.toPath(), content);
+	}
+
+	private ServletMocks.Response send(String range) throws IOException {
+		ServletMocks.Request request=new ServletMocks.Request();
+		if(range!=null) {
+			request.header("Range", range);
+		}
+		ServletMocks.Response response=new ServletMocks.Response();
+		FileSender.send(request.proxy(), response.proxy(), file);
+		return response;
+	}
+
+	private static void assertRanges(List<long[]> ranges, long... bounds) {
+		assertEquals(bounds.length/2, ranges.size());
+		for(int i=0; i<ranges.size(); i++) {
+			assertArrayEquals(new long[] {bounds[2*i], bounds[2*i+1]}, ranges.get(i));
+		}
+	}
+
+	@Test
+	public void parsesSuffixRanges() {
+		assertRanges(FileSender.parseRanges("bytes=-500", 1000), 500, 1000);
+		//a suffix longer than the file selects all of it
+		assertRanges(FileSender.parseRanges("bytes=-5000", 1000), 0, 1000);
+		assertRanges(FileSender.parseRanges("bytes=-0", 1000));
+	}
+
+	@Test
+	public void parsesOpenAndClampedRanges() {
+		assertRanges(FileSender.parseRanges("bytes=900-", 1000), 900, 1000);
+		assertRanges(FileSender.parseRanges("bytes=0-0", 1000), 0, 1);
+		assertRanges(FileSender.parseRanges("BYTES= 990 - 2000 ", 1000), 990, 1000);
+	}
+
+	@Test
+	public void coalescesOverlappingAndAdjacentRanges() {
+		assertRanges(FileSender.parseRanges("bytes=500-599,0-99,50-149,150-199", 1000), 0, 200, 500, 600);
+		assertRanges(FileSender.parseRanges("bytes=0-499,-600", 1000), 0, 1000);
+	}
+
+	@Test
+	public void dropsUnsatisfiableRanges() {
+		assertRanges(FileSender.parseRanges("bytes=1000-", 1000));
+		assertRanges(FileSender.parseRanges("bytes=1000-1100,10-19", 1000), 10, 20);
+	}
+
+	@Test
+	public void ignoresMalformedRanges() {
+		for(String header:new String[] {"items=0-1", "bytes=5", "bytes=a-b", "bytes=10-5", "bytes=--5", "bytes=-5-"}) {
+			assertNull(header, FileSender.parseRanges(header, 1000));
+		}
+	}
+
+	@Test
+	public void sendsSuffixRange() throws IOException {
+		ServletMocks.Response response=send("bytes=-500");
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertEquals("bytes 500-999/1000", response.header("Content-Range"));
+		assertEquals(500, response.contentLength);
+		assertArrayEquals(Arrays.copyOfRange(content, 500, 1000), response.body.toByteArray());
+	}
+
+	@Test
+	public void sendsOverlappingRangesAsOne() throws IOException {
+		ServletMocks.Response response=send("bytes=100-199,150-299");
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertEquals("bytes 100-299/1000", response.header("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(content, 100, 300), response.body.toByteArray());
+	}
+
+	@Test
+	public void sendsMultipleRangesAsMultipart() throws IOException {
+		ServletMocks.Response response=send("bytes=0-9,-10");
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertTrue(response.contentType.startsWith("multipart/byteranges; boundary="));
+		assertEquals(response.body.size(), response.contentLength);
+		String body=new String(response.body.toByteArray(), StandardCharsets.ISO_8859_1);
+		assertTrue(body.contains("Content-Range: bytes 0-9/1000\r\n"));
+		assertTrue(body.contains("Content-Range: bytes 990-999/1000\r\n"));
+		String boundary=response.contentType.substring(response.contentType.indexOf('=')+1);
+		assertTrue(body.endsWith("\r\n--"+boundary+"--\r\n"));
+	}
+
+	@Test
+	public void answersUnsatisfiableRangeWith416() throws IOException {
+		ServletMocks.Response response=send("bytes=1000-1999");
+		assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.status);
+		assertEquals("bytes */1000", response.header("Content-Range"));
+		assertEquals(0, response.body.size());
+	}
+
+	@Test
+	public void sendsWholeFileForMalformedRange() throws IOException {
+		ServletMocks.Response response=send("bytes=abc");
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals(1000, response.contentLength);
+		assertArrayEquals(content, response.body.toByteArray());
+	}
+
+	@Test
+	public void ignoresRangeWhenIfRangeDoesNotMatch() throws IOException {
+		ServletMocks.Request request=new ServletMocks.Request().header("Range", "bytes=-500").header("If-Range", "\"other\"");
+		ServletMocks.Response response=new ServletMocks.Response();
+		FileSender.send(request.proxy(), response.proxy(), file);
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals(1000, response.body.size());
+	}
+}
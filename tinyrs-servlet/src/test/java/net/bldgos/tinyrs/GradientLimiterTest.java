@@ -0,0 +1,94 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class GradientLimiterTest {
+	private static final long MS=TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void dropShrinksLimitOncePerWindow() {
+		GradientLimiter limiter=new GradientLimiter(100, 1, 1000, 1, TimeUnit.HOURS.toNanos(1));
+		for(int i=0; i<50; i++) {
+			limiter.onSample(MS, 100, true);
+		}
+		//the window has not elapsed yet
+		assertEquals(100, limiter.getLimit());
+		limiter=new GradientLimiter(100, 1, 1000, 1, 0);
+		limiter.onSample(MS, 100, true);
+		assertEquals(90, limiter.getLimit());
+	}
+
+	@Test
+	public void windowNeedsMinimumSamples() {
+		GradientLimiter limiter=new GradientLimiter(100, 1, 1000, 1, 0);
+		for(int i=0; i<9; i++) {
+			limiter.onSample(MS, 100, false);
+		}
+		assertEquals(100, limiter.getLimit());
+		limiter.onSample(MS, 100, false);
+		assertTrue(limiter.getLimit()>100);
+	}
+
+	@Test
+	public void flatLatencyGrowsSaturatedLimit() {
+		GradientLimiter limiter=new GradientLimiter(10, 1, 1000, 1, 0);
+		for(int i=0; i<500; i++) {
+			limiter.onSample(MS, limiter.getLimit(), false);
+		}
+		assertTrue(limiter.getLimit()>50);
+	}
+
+	@Test
+	public void unsaturatedLimitStays() {
+		GradientLimiter limiter=new GradientLimiter(100, 1, 1000, 1, 0);
+		for(int i=0; i<500; i++) {
+			limiter.onSample(MS, 5, false);
+		}
+		assertEquals(100, limiter.getLimit());
+	}
+
+	@Test
+	public void queuingDelayShrinksLimit() {
+		GradientLimiter limiter=new GradientLimiter(100, 1, 1000, 1, 0);
+		for(int i=0; i<600; i++) {
+			limiter.onSample(MS, limiter.getLimit(), false);
+		}
+		int limit=limiter.getLimit();
+		for(int i=0; i<100; i++) {
+			limiter.onSample(20*MS, limiter.getLimit(), false);
+		}
+		assertTrue(limiter.getLimit()<limit);
+	}
+
+	@Test
+	public void staysWithinBoundsUnderConcurrentSamples() throws InterruptedException {
+		GradientLimiter limiter=new GradientLimiter(20, 5, 40, 1, 0);
+		Thread[] threads=new Thread[8];
+		CountDownLatch start=new CountDownLatch(1);
+		for(int t=0; t<threads.length; t++) {
+			int seed=t;
+			threads[t]=new Thread(()->{
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for(int i=0; i<20000; i++) {
+					limiter.onSample((1+(i+seed)%7)*MS, limiter.getLimit(), i%97==0);
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread:threads) {
+			thread.join();
+		}
+		assertTrue(limiter.getLimit()>=5&&limiter.getLimit()<=40);
+	}
+}
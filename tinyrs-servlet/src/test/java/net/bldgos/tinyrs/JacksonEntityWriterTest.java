@@ -0,0 +1,78 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+public class JacksonEntityWriterTest {
+
+	public static class Item {
+		public String name;
+		public int n;
+
+		Item(String name, int n) {
+			this.name=name;
+			this.n=n;
+		}
+	}
+
+	@Test
+	public void writesStreamAsJsonArray() throws Exception {
+		ServletMocks.Response response=new ServletMocks.Response();
+		new JacksonEntityWriter().write(Stream.of(new Item("a", 1), new Item("b", 2)), Stream.class, MediaType.APPLICATION_JSON_TYPE, response.proxy());
+		assertEquals("[{\"name\":\"a\",\"n\":1},{\"name\":\"b\",\"n\":2}]", response.text());
+	}
+
+	@Test
+	public void writesNdjsonLinesOfRuntimeTypesWithIndentingMapper() throws Exception {
+		ObjectMapper mapper=new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+		ServletMocks.Response response=new ServletMocks.Response();
+		Iterator<Object> elements=Arrays.<Object>asList(new Item("a", 1), "s", null, new Item("b", 2), 3).iterator();
+		Type genericType=Iterator.class;
+		new JacksonEntityWriter(mapper).write(elements, genericType, JacksonEntityWriter.APPLICATION_NDJSON_TYPE, response.proxy());
+		assertEquals("{\"name\":\"a\",\"n\":1}\n\"s\"\nnull\n{\"name\":\"b\",\"n\":2}\n3\n", response.text());
+	}
+
+	@Test
+	public void flushesEveryBatch() throws Exception {
+		ServletMocks.Response response=new ServletMocks.Response();
+		new JacksonEntityWriter(new ObjectMapper(), 10, Integer.MAX_VALUE).write(IntStream.range(0, 35).boxed(), Stream.class, JacksonEntityWriter.APPLICATION_NDJSON_TYPE, response.proxy());
+		assertEquals(3, response.flushes);
+		assertEquals(35, response.text().split("\n").length);
+	}
+
+	@Test
+	public void flushesAfterByteThreshold() throws Exception {
+		ServletMocks.Response response=new ServletMocks.Response();
+		new JacksonEntityWriter(new ObjectMapper(), Integer.MAX_VALUE, 1).write(Stream.of(new Item("a", 1), new Item("b", 2)), Stream.class, JacksonEntityWriter.APPLICATION_NDJSON_TYPE, response.proxy());
+		assertTrue(response.flushes>=1);
+	}
+
+	@Test
+	public void leavesArrayOpenOnFailure() throws Exception {
+		ServletMocks.Response response=new ServletMocks.Response();
+		Stream<Integer> failing=IntStream.range(0, 5).mapToObj(i->{
+			if(i==3) {
+				throw new IllegalStateException();
+			}
+			return i;
+		});
+		try {
+			new JacksonEntityWriter().write(failing, Stream.class, MediaType.APPLICATION_JSON_TYPE, response.proxy());
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals("[0,1,2", response.text());
+	}
+}
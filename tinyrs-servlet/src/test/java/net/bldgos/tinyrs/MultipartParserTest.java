@@ -0,0 +1,163 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MultipartParserTest {
+	private static final String BOUNDARY="----tinyrsBoundary42";
+
+	/**
+	 * Returns at most chunk bytes per read, like a slow client
+	 */
+	private static InputStream chunked(byte[] data, int chunk) {
+		return new ByteArrayInputStream(data) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, chunk));
+			}
+		};
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static byte[] body(byte[]... parts) throws IOException {
+		ByteArrayOutputStream body=new ByteArrayOutputStream();
+		for(int i=0; i<parts.length; i++) {
+			body.write(bytes("--"+BOUNDARY+"\r\nContent-Disposition: form-data; name=\"p"+i+"\"; filename=\"f"+i+".bin\"\r\nContent-Type: application/octet-stream\r\n\r\n"));
+			body.write(parts[i]);
+			body.write(bytes("\r\n"));
+		}
+		body.write(bytes("--"+BOUNDARY+"--\r\n"));
+		return body.toByteArray();
+	}
+
+	private static List<byte[]> parse(InputStream input) throws IOException {
+		List<byte[]> parts=new ArrayList<>();
+		MultipartParser.parse(input, BOUNDARY, part->{
+			ByteArrayOutputStream data=new ByteArrayOutputStream();
+			byte[] b=new byte[777];
+			int n;
+			while((n=part.getInputStream().read(b))!=-1) {
+				data.write(b, 0, n);
+			}
+			parts.add(data.toByteArray());
+		});
+		return parts;
+	}
+
+	@Test
+	public void parsesPartsAndHeaders() throws IOException {
+		byte[] body=bytes("preamble\r\n--"+BOUNDARY+"  \r\nContent-Disposition: form-data; name=\"file\"; filename=\"C:\\\\dir\\\\a \\\"b\\\".txt\"\r\nContent-Type: text/plain\r\n\r\nhello\r\n--"
+				+BOUNDARY+"\r\nContent-Disposition: form-data; name=\"field\"\r\n\r\nvalue\r\n--"+BOUNDARY+"--\r\nepilogue");
+		List<MultipartParser.Part> parts=new ArrayList<>();
+		List<String> data=new ArrayList<>();
+		MultipartParser.parse(new ByteArrayInputStream(body), BOUNDARY, part->{
+			parts.add(part);
+			data.add(new String(readAll(part.getInputStream()), StandardCharsets.UTF_8));
+		});
+		assertEquals(2, parts.size());
+		assertEquals("file", parts.get(0).getName());
+		assertEquals("C:\\\\dir\\\\a \"b\".txt", parts.get(0).getSubmittedFileName());
+		assertEquals("text/plain", parts.get(0).getContentType());
+		assertEquals("hello", data.get(0));
+		assertEquals("field", parts.get(1).getName());
+		assertNull(parts.get(1).getSubmittedFileName());
+		assertEquals("value", data.get(1));
+	}
+
+	@Test
+	public void findsDelimiterSplitAcrossBufferRefills() throws IOException {
+		Random random=new Random(7);
+		//parts around the pooled buffer size, so that delimiters straddle the end of the buffer
+		int[] sizes={0, 1, BufferPool.BUFFER_SIZE-BOUNDARY.length()-10, BufferPool.BUFFER_SIZE-1, BufferPool.BUFFER_SIZE, 3*BufferPool.BUFFER_SIZE+5};
+		byte[][] parts=new byte[sizes.length][];
+		for(int i=0; i<sizes.length; i++) {
+			parts[i]=new byte[sizes[i]];
+			random.nextBytes(parts[i]);
+		}
+		byte[] body=body(parts);
+		for(int chunk:new int[] {1, 2, 7, BOUNDARY.length()+3, 1000, Integer.MAX_VALUE}) {
+			List<byte[]> parsed=parse(chunked(body, chunk));
+			assertEquals(parts.length, parsed.size());
+			for(int i=0; i<parts.length; i++) {
+				assertArrayEquals("chunk "+chunk+" part "+i, parts[i], parsed.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void keepsDataResemblingDelimiter() throws IOException {
+		byte[] part=bytes("a\r\n--"+BOUNDARY.substring(0, BOUNDARY.length()-1)+"x\r\n-\r\n--"+BOUNDARY.substring(0, 5));
+		for(int chunk:new int[] {1, 3, Integer.MAX_VALUE}) {
+			assertArrayEquals(part, parse(chunked(body(part), chunk)).get(0));
+		}
+	}
+
+	@Test
+	public void skipsUnreadPartData() throws IOException {
+		byte[] body=body(new byte[50000], bytes("second"));
+		List<String> names=new ArrayList<>();
+		MultipartParser.parse(chunked(body, 100), BOUNDARY, part->names.add(part.getName()));
+		assertEquals(2, names.size());
+		assertEquals("p1", names.get(1));
+	}
+
+	@Test
+	public void failsOnMissingFinalBoundary() throws IOException {
+		byte[] complete=body(bytes("data"), new byte[20000]);
+		String text=new String(complete, StandardCharsets.ISO_8859_1);
+		String[] truncated={
+				text.substring(0, text.lastIndexOf("--"+BOUNDARY+"--")),//no close delimiter
+				text.substring(0, text.lastIndexOf("--"+BOUNDARY+"--")-2),//ends in the part data
+				text.substring(0, text.lastIndexOf("--"+BOUNDARY+"--")+BOUNDARY.length()),//ends in the delimiter
+				text.substring(0, text.lastIndexOf("--"+BOUNDARY+"--")+BOUNDARY.length()+2),//ends after the delimiter
+				text.substring(0, text.indexOf("\r\n\r\n")),//ends in the headers
+				"no boundary at all"};
+		for(String body:truncated) {
+			for(int chunk:new int[] {1, Integer.MAX_VALUE}) {
+				try {
+					parse(chunked(bytes(body), chunk));
+					fail(body.length()+" bytes");
+				} catch (EOFException expected) {
+				}
+			}
+		}
+	}
+
+	@Test
+	public void rejectsGarbageAfterDelimiter() throws IOException {
+		try {
+			parse(new ByteArrayInputStream(bytes("--"+BOUNDARY+"x\r\n\r\ndata\r\n--"+BOUNDARY+"--")));
+			fail();
+		} catch (EOFException e) {
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream data=new ByteArrayOutputStream();
+		int n;
+		byte[] b=new byte[100];
+		while((n=input.read(b))!=-1) {
+			data.write(b, 0, n);
+		}
+		return data.toByteArray();
+	}
+}
@@ -0,0 +1,91 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class NonBlockingIOTest {
+	private final ServletMocks.Response response=new ServletMocks.Response();
+	private final AtomicInteger completions=new AtomicInteger();
+
+	private AsyncContext asyncContext() {
+		HttpServletResponse proxy=response.proxy();
+		return (AsyncContext)Proxy.newProxyInstance(NonBlockingIOTest.class.getClassLoader(), new Class<?>[] {AsyncContext.class}, (p, m, args)->{
+			switch(m.getName()) {
+			case "getResponse":
+				return proxy;
+			case "complete":
+				completions.incrementAndGet();
+				return null;
+			default:
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void writesSourceAndCompletes() throws IOException {
+		NonBlockingIO.writeBody(asyncContext(), Channels.newChannel(new ByteArrayInputStream("body".getBytes("UTF-8"))));
+		response.writeListener.onWritePossible();
+		assertEquals("body", response.text());
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals(1, completions.get());
+	}
+
+	@Test
+	public void failsInsteadOfSpinningOnEmptyReads() throws IOException {
+		ReadableByteChannel source=new ReadableByteChannel() {
+			private int reads;
+
+			@Override
+			public int read(ByteBuffer dst) throws IOException {
+				if(++reads>10) {
+					throw new AssertionError("spinning on a source returning no bytes");
+				}
+				return 0;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		NonBlockingIO.writeBody(asyncContext(), source);
+		response.writeListener.onWritePossible();
+		assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, response.status);
+		assertEquals(1, completions.get());
+	}
+
+	@Test
+	public void rejectsNonBlockingChannels() throws IOException {
+		Pipe pipe=Pipe.open();
+		try {
+			pipe.source().configureBlocking(false);
+			NonBlockingIO.writeBody(asyncContext(), pipe.source());
+			fail("non-blocking source accepted");
+		} catch (IllegalArgumentException e) {
+			assertTrue(response.writeListener==null);
+		} finally {
+			pipe.source().close();
+			pipe.sink().close();
+		}
+	}
+}
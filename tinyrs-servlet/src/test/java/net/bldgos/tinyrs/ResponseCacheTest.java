@@ -0,0 +1,114 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ResponseCacheTest {
+	private static final long TTL=TimeUnit.MINUTES.toNanos(1);
+
+	private static CapturedResponse response(int bodyLength) {
+		return new CapturedResponse(200, "text/plain", new ArrayList<>(), ByteBuffer.wrap(new byte[bodyLength]));
+	}
+
+	@Test
+	public void returnsUnexpiredResponses() throws InterruptedException {
+		ResponseCache cache=new ResponseCache(100000);
+		CapturedResponse response=response(100);
+		cache.put("/a", response, TTL, cache.getGeneration());
+		cache.put("/b", response(100), 1, cache.getGeneration());
+		assertSame(response, cache.get("/a"));
+		Thread.sleep(1);
+		assertNull(cache.get("/b"));
+		assertNull(cache.get("/c"));
+	}
+
+	@Test
+	public void oneHitWondersDoNotFlushPopularEntries() {
+		//window of 1000 bytes, main region of about 200 entries
+		ResponseCache cache=new ResponseCache(100000);
+		for(int i=0; i<150; i++) {
+			cache.put("/hot/"+i, response(400), TTL, cache.getGeneration());
+		}
+		for(int n=0; n<5; n++) {
+			for(int i=0; i<150; i++) {
+				cache.get("/hot/"+i);
+			}
+		}
+		for(int i=0; i<1000; i++) {
+			cache.put("/cold/"+i, response(400), TTL, cache.getGeneration());
+		}
+		for(int i=0; i<150; i++) {
+			assertNotNull("/hot/"+i, cache.get("/hot/"+i));
+		}
+		assertTrue(cache.getEvictions()>0);
+		assertTrue(cache.getBytes()<=100000);
+	}
+
+	@Test
+	public void frequentlyMissedKeyIsAdmitted() {
+		ResponseCache cache=new ResponseCache(100000);
+		for(int i=0; i<1000; i++) {
+			cache.put("/cold/"+i, response(400), TTL, cache.getGeneration());
+		}
+		for(int n=0; n<5; n++) {
+			assertNull(cache.get("/popular"));
+		}
+		cache.put("/popular", response(400), TTL, cache.getGeneration());
+		//push it out of the window into the main region
+		cache.put("/cold/a", response(400), TTL, cache.getGeneration());
+		cache.put("/cold/b", response(400), TTL, cache.getGeneration());
+		cache.put("/cold/c", response(400), TTL, cache.getGeneration());
+		assertNotNull(cache.get("/popular"));
+	}
+
+	@Test
+	public void invalidatesPathAndDropsResponsesComputedMeanwhile() {
+		ResponseCache cache=new ResponseCache(100000);
+		cache.put("/a", response(10), TTL, cache.getGeneration());
+		cache.put("/a?x=1", response(10), TTL, cache.getGeneration());
+		cache.put("/a\napplication/json", response(10), TTL, cache.getGeneration());
+		cache.put("/ab", response(10), TTL, cache.getGeneration());
+		long generation=cache.getGeneration();
+		cache.invalidate("/a");
+		assertNull(cache.get("/a"));
+		assertNull(cache.get("/a?x=1"));
+		assertNull(cache.get("/a\napplication/json"));
+		assertNotNull(cache.get("/ab"));
+		cache.put("/a", response(10), TTL, generation);
+		assertNull(cache.get("/a"));
+	}
+
+	@Test
+	public void staysWithinBudgetUnderConcurrentAccess() throws InterruptedException {
+		ResponseCache cache=new ResponseCache(50000);
+		Thread[] threads=new Thread[8];
+		for(int t=0; t<threads.length; t++) {
+			threads[t]=new Thread(()->{
+				ThreadLocalRandom random=ThreadLocalRandom.current();
+				for(int i=0; i<20000; i++) {
+					String key="/"+random.nextInt(500);
+					if(cache.get(key)==null) {
+						cache.put(key, response(random.nextInt(1000)), TTL, cache.getGeneration());
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread:threads) {
+			thread.join();
+		}
+		assertTrue(cache.getBytes()<=50000);
+		cache.clear();
+		assertEquals(0, cache.getBytes());
+	}
+}
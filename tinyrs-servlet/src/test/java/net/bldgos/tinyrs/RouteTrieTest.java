@@ -0,0 +1,110 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import javax.servlet.ServletException;
+
+import org.junit.Test;
+
+public class RouteTrieTest {
+	private final RouteTrie trie=new RouteTrie();
+
+	private ResourceMethod[] add(String template) throws ServletException {
+		return trie.getOrCreateGroup(RouteTrie.parse(template), 7);
+	}
+
+	private int[] bounds() {
+		return new int[2*trie.getMaxParameters()];
+	}
+
+	private static String parameter(String path, int[] bounds, int index) {
+		return path.substring(bounds[2*index], bounds[2*index+1]);
+	}
+
+	@Test
+	public void literalTakesPrecedenceOverParameter() throws ServletException {
+		ResourceMethod[] list=add("/files/list");
+		ResourceMethod[] file=add("/files/{id}");
+		int[] bounds=bounds();
+		assertSame(list, trie.match("/files/list", bounds));
+		assertSame(file, trie.match("/files/lis", bounds));
+		assertEquals("lis", parameter("/files/lis", bounds, 0));
+		assertNull(trie.match("/files/", bounds));
+		assertNull(trie.match("/files/a/b", bounds));
+	}
+
+	@Test
+	public void backtracksFromLiteralToParameter() throws ServletException {
+		ResourceMethod[] literal=add("/a/b/d");
+		ResourceMethod[] parameter=add("/a/{x}/c");
+		int[] bounds=bounds();
+		assertSame(literal, trie.match("/a/b/d", bounds));
+		assertSame(parameter, trie.match("/a/b/c", bounds));
+		assertEquals("b", parameter("/a/b/c", bounds, 0));
+	}
+
+	@Test
+	public void regexParameterIsTriedBeforeDefault() throws ServletException {
+		ResourceMethod[] name=add("/files/{name}/meta");
+		ResourceMethod[] id=add("/files/{id: \\d+}/meta");
+		int[] bounds=bounds();
+		assertSame(id, trie.match("/files/12/meta", bounds));
+		assertEquals("12", parameter("/files/12/meta", bounds, 0));
+		assertSame(name, trie.match("/files/1a/meta", bounds));
+		assertEquals("1a", parameter("/files/1a/meta", bounds, 0));
+	}
+
+	@Test
+	public void regexMustMatchWholeSegment() throws ServletException {
+		ResourceMethod[] id=add("/items/{id: \\d+}");
+		int[] bounds=bounds();
+		assertSame(id, trie.match("/items/123", bounds));
+		assertNull(trie.match("/items/123x", bounds));
+		assertNull(trie.match("/items/123/x", bounds));
+	}
+
+	@Test
+	public void trailingRegexSpansSegments() throws ServletException {
+		ResourceMethod[] all=add("/static/{path: .+}");
+		ResourceMethod[] scripts=add("/static/{dir}/{file: .+\\.js}");
+		int[] bounds=bounds();
+		assertSame(all, trie.match("/static/a/b/c.css", bounds));
+		assertEquals("a/b/c.css", parameter("/static/a/b/c.css", bounds, 0));
+		assertSame(scripts, trie.match("/static/lib/app.js", bounds));
+		assertEquals("lib", parameter("/static/lib/app.js", bounds, 0));
+		assertEquals("app.js", parameter("/static/lib/app.js", bounds, 1));
+		assertSame(scripts, trie.match("/static/lib/x/app.js", bounds));
+		assertEquals("x/app.js", parameter("/static/lib/x/app.js", bounds, 1));
+	}
+
+	@Test
+	public void multipleParameters() throws ServletException {
+		ResourceMethod[] group=add("/users/{user}/repos/{repo}");
+		assertEquals(2, trie.getMaxParameters());
+		int[] bounds=bounds();
+		String path="/users/ann/repos/tinyrs";
+		assertSame(group, trie.match(path, bounds));
+		assertEquals("ann", parameter(path, bounds, 0));
+		assertEquals("tinyrs", parameter(path, bounds, 1));
+	}
+
+	@Test
+	public void sameTemplateSharesGroup() throws ServletException {
+		assertSame(add("/x/{a}"), add("/x/{b}"));
+		assertSame(add("/y/{a: [^/]+}"), add("/y/{a}"));
+	}
+
+	@Test
+	public void rejectsMalformedTemplates() {
+		for(String template:new String[] {"/a{b}", "/a/{b", "/a/{b}c", "/a/b}", "/a/{b c}", "/a/{b: [}"}) {
+			try {
+				RouteTrie.parse(template);
+				fail(template);
+			} catch (ServletException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package net.bldgos.tinyrs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal in-memory requests and responses, only the methods the dispatcher classes call are implemented
+ */
+final class ServletMocks {
+
+	private ServletMocks() {
+	}
+
+	static class Request implements InvocationHandler {
+		final Map<String,String> headers=new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		final Map<String,Object> attributes=new HashMap<>();
+		String method="GET";
+		String pathInfo="/";
+		String queryString;
+		byte[] body=new byte[0];
+
+		Request header(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+
+		Request body(byte[] body) {
+			this.body=body;
+			return this;
+		}
+
+		HttpServletRequest proxy() {
+			return (HttpServletRequest)Proxy.newProxyInstance(ServletMocks.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			switch(m.getName()) {
+			case "getHeader":
+				return headers.get(args[0]);
+			case "getHeaders":
+				String value=headers.get(args[0]);
+				return Collections.enumeration(value==null?Collections.<String>emptyList():Collections.singletonList(value));
+			case "getDateHeader":
+				String date=headers.get(args[0]);
+				return date==null?-1L:Long.valueOf(new java.text.SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", java.util.Locale.US).parse(date).getTime());
+			case "getContentType":
+				return headers.get("Content-Type");
+			case "getContentLengthLong":
+				return headers.containsKey("Content-Length")?Long.parseLong(headers.get("Content-Length")):-1L;
+			case "getContentLength":
+				return headers.containsKey("Content-Length")?Integer.parseInt(headers.get("Content-Length")):-1;
+			case "getMethod":
+				return method;
+			case "getPathInfo":
+				return pathInfo;
+			case "getRequestURI":
+				return pathInfo;
+			case "getQueryString":
+				return queryString;
+			case "getAttribute":
+				return attributes.get(args[0]);
+			case "setAttribute":
+				attributes.put((String)args[0], args[1]);
+				return null;
+			case "removeAttribute":
+				attributes.remove(args[0]);
+				return null;
+			case "getInputStream":
+				return inputStream(new ByteArrayInputStream(body));
+			default:
+				return defaultValue(m);
+			}
+		}
+	}
+
+	static class Response implements InvocationHandler {
+		final ByteArrayOutputStream body=new ByteArrayOutputStream();
+		final Map<String,List<String>> headers=new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		int status=HttpServletResponse.SC_OK;
+		String contentType;
+		long contentLength=-1;
+		//flushes of the output stream reaching the client
+		int flushes;
+		boolean committed;
+		WriteListener writeListener;
+		private ServletOutputStream output;
+		private PrintWriter writer;
+
+		HttpServletResponse proxy() {
+			return (HttpServletResponse)Proxy.newProxyInstance(ServletMocks.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class}, this);
+		}
+
+		String header(String name) {
+			List<String> values=headers.get(name);
+			return values==null?null:values.get(0);
+		}
+
+		String text() {
+			return new String(body.toByteArray(), StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			switch(m.getName()) {
+			case "getOutputStream":
+				if(output==null) {
+					output=new ServletOutputStream() {
+						@Override
+						public void write(int b) {
+							committed|=body.size()>=8192;
+							body.write(b);
+						}
+						@Override
+						public void write(byte[] b, int off, int len) {
+							body.write(b, off, len);
+							committed|=body.size()>=8192;
+						}
+						@Override
+						public void flush() {
+							flushes++;
+							committed=true;
+						}
+						@Override
+						public boolean isReady() {
+							return true;
+						}
+						@Override
+						public void setWriteListener(WriteListener listener) {
+							writeListener=listener;
+						}
+					};
+				}
+				return output;
+			case "getWriter":
+				if(writer==null) {
+					writer=new PrintWriter(new OutputStreamWriter((ServletOutputStream)invoke(proxy, HttpServletResponse.class.getMethod("getOutputStream"), null), StandardCharsets.UTF_8));
+				}
+				return writer;
+			case "flushBuffer":
+				if(writer!=null) {
+					writer.flush();
+				}
+				flushes++;
+				committed=true;
+				return null;
+			case "isCommitted":
+				return committed;
+			case "setStatus":
+				status=(Integer)args[0];
+				return null;
+			case "sendError":
+				status=(Integer)args[0];
+				committed=true;
+				return null;
+			case "getStatus":
+				return status;
+			case "setContentType":
+				contentType=(String)args[0];
+				return null;
+			case "getContentType":
+				return contentType;
+			case "setContentLength":
+				contentLength=(Integer)args[0];
+				return null;
+			case "setContentLengthLong":
+				contentLength=(Long)args[0];
+				return null;
+			case "setHeader":
+			case "setDateHeader":
+			case "setIntHeader":
+				headers.put((String)args[0], new ArrayList<>(Collections.singletonList(String.valueOf(args[1]))));
+				return null;
+			case "addHeader":
+			case "addDateHeader":
+			case "addIntHeader":
+				headers.computeIfAbsent((String)args[0], k->new ArrayList<>()).add(String.valueOf(args[1]));
+				return null;
+			case "getHeader":
+				return header((String)args[0]);
+			case "getHeaders":
+				List<String> values=headers.get(args[0]);
+				return values==null?Collections.emptyList():values;
+			case "containsHeader":
+				return headers.containsKey(args[0]);
+			case "reset":
+			case "resetBuffer":
+				body.reset();
+				return null;
+			default:
+				return defaultValue(m);
+			}
+		}
+	}
+
+	static ServletInputStream inputStream(InputStream in) {
+		return new ServletInputStream() {
+			@Override
+			public int read() throws IOException {
+				return in.read();
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return in.read(b, off, len);
+			}
+			@Override
+			public boolean isFinished() {
+				return false;
+			}
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+			@Override
+			public void setReadListener(ReadListener readListener) {
+			}
+		};
+	}
+
+	private static Object defaultValue(Method m) {
+		Class<?> type=m.getReturnType();
+		if(type==boolean.class) {
+			return false;
+		}
+		if(type==int.class) {
+			return 0;
+		}
+		if(type==long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,86 @@
+package net.bldgos.tinyrs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class TimeoutGuardTest {
+	private final TimeoutGuard guard=new TimeoutGuard();
+
+	@Test
+	public void passesThroughUntilDetached() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		HttpServletResponse guarded=guard.wrap(response.proxy());
+		guarded.setStatus(HttpServletResponse.SC_CREATED);
+		guarded.setHeader("X-Test", "1");
+		guarded.getOutputStream().write("body".getBytes(StandardCharsets.UTF_8));
+		assertEquals(HttpServletResponse.SC_CREATED, response.status);
+		assertEquals("1", response.header("X-Test"));
+		assertEquals("body", response.text());
+	}
+
+	@Test
+	public void rejectsWritesOnceDetached() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		HttpServletResponse guarded=guard.wrap(response.proxy());
+		ServletOutputStream output=guarded.getOutputStream();
+		guard.detach();
+		guarded.setStatus(HttpServletResponse.SC_CREATED);
+		guarded.addHeader("X-Test", "1");
+		try {
+			output.write(1);
+			fail("write after detach");
+		} catch (IOException e) {
+			//expected
+		}
+		try {
+			guarded.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			fail("sendError after detach");
+		} catch (IOException e) {
+			//expected
+		}
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertNull(response.header("X-Test"));
+		assertEquals(0, response.body.size());
+	}
+
+	@Test
+	public void discardsWriterOutputOnceDetached() throws IOException {
+		ServletMocks.Response response=new ServletMocks.Response();
+		PrintWriter writer=guard.wrap(response.proxy()).getWriter();
+		guard.detach();
+		writer.write("late");
+		writer.flush();
+		assertTrue(writer.checkError());
+		assertEquals(0, response.body.size());
+	}
+
+	@Test
+	public void rejectsReadsOnceDetached() throws IOException {
+		ServletMocks.Request request=new ServletMocks.Request().body(new byte[] {1, 2});
+		HttpServletRequest guarded=guard.wrap(request.proxy());
+		ServletInputStream input=guarded.getInputStream();
+		assertEquals(1, input.read());
+		guard.detach();
+		guarded.setAttribute("late", Boolean.TRUE);
+		try {
+			input.read();
+			fail("read after detach");
+		} catch (IOException e) {
+			//expected
+		}
+		assertNull(request.attributes.get("late"));
+	}
+}
@@ -4,43 +4,103 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import javax.security.auth.login.FailedLoginException;
 import javax.security.auth.login.LoginException;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
-import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.Part;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HEAD;
 import javax.ws.rs.PATCH;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
+import net.bldgos.tinyrs.AdaptiveLimit;
+import net.bldgos.tinyrs.Bulkhead;
+import net.bldgos.tinyrs.Cached;
+import net.bldgos.tinyrs.FileSender;
+import net.bldgos.tinyrs.JacksonEntityWriter;
+import net.bldgos.tinyrs.MultipartParser;
+import net.bldgos.tinyrs.NonBlocking;
+import net.bldgos.tinyrs.NonBlockingIO;
 import net.bldgos.tinyrs.TinyrsDispatcherServlet;
+import net.bldgos.tinyrs.VirtualThread;
 
-@WebServlet(urlPatterns="/v1/*",asyncSupported=true)
-@MultipartConfig(maxRequestSize=1*1024*1024*1024+1024,maxFileSize=1*1024*1024*1024,fileSizeThreshold=8*1024*1024)
+@WebServlet(urlPatterns="/v1/*",asyncSupported=true,loadOnStartup=1)
 public class V1Servlet extends TinyrsDispatcherServlet {
 	private static final long serialVersionUID = -1346032693813268430L;
 
 	public static Map<String,Object> tokenRegistry=new ConcurrentHashMap<>();
 	public static File repoDir=new File(System.getProperty("user.home"),".tinyrs/repository");
+	//sibling of repoDir, so that completed uploads can be renamed atomically into it
+	public static File uploadDir=new File(System.getProperty("user.home"),".tinyrs/uploads");
+
+	private static final String TUS_VERSION="1.0.0";
+	private static final String OFFSET_OCTET_STREAM="application/offset+octet-stream";
+	private static final long MAX_UPLOAD_LENGTH=1L*1024*1024*1024;
+	//an upload session expires when no chunk was received for this long (tus 1.0 expiration extension)
+	private static final long UPLOAD_EXPIRY=TimeUnit.HOURS.toMillis(24);
+	private static final long UPLOAD_SWEEP_INTERVAL=TimeUnit.HOURS.toMillis(1);
+	private final Map<String,UploadSession> uploadSessions=new ConcurrentHashMap<>();
+	private ScheduledExecutorService uploadSweeper;
 
 	public V1Servlet() {
 		repoDir.mkdirs();
+		uploadDir.mkdirs();
+	}
+
+	/**
+	 * Starts sweeping expired upload sessions. Sessions only live in memory, so the temp files of uploads
+	 * interrupted by a restart are left behind without a session: the sweep deletes them as well once
+	 * they have not been written to for the expiry period.
+	 */
+	@Override
+	public void init() throws ServletException {
+		super.init();
+		uploadSweeper=Executors.newSingleThreadScheduledExecutor(runnable->{
+			Thread thread=new Thread(runnable, "tinyrs-upload-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		uploadSweeper.scheduleWithFixedDelay(this::sweepUploads, 0, UPLOAD_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void destroy() {
+		if(uploadSweeper!=null) {
+			uploadSweeper.shutdownNow();
+		}
+		super.destroy();
 	}
 
 	@GET
@@ -96,46 +156,369 @@ public class V1Servlet extends TinyrsDispatcherServlet {
 		return token;
 	}
 	
+	@VirtualThread
+	@Bulkhead(value=8,retryAfter=5)
 	@POST
 	@Path("/upload")
 	@Consumes(MediaType.MULTIPART_FORM_DATA)
 	@Produces(MediaType.TEXT_PLAIN)
 	public void upload(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		int count=0;
-		for(Part part:request.getParts()) {
-			String fileName=part.getSubmittedFileName();
-			String name=part.getName();
-			if(fileName==null||!name.equals("file"))
-				continue;
-			File destFile=new File(repoDir,fileName);
-			try(InputStream input=part.getInputStream()){
-				Files.copy(input, destFile.toPath(),StandardCopyOption.REPLACE_EXISTING);
-				count++;
-			}finally {
-				part.delete();
-			}
+		if(request.getHeader("Upload-Length")!=null) {
+			createUpload(request, response);
+			return;
+		}
+		if(MultipartParser.getBoundary(request)==null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		if(request.getContentLengthLong()>MAX_UPLOAD_LENGTH+1024) {
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return;
+		}
+		AtomicInteger count=new AtomicInteger();
+		try {
+			MultipartParser.parse(request, part->{
+				String fileName=part.getSubmittedFileName();
+				String name=part.getName();
+				if(fileName==null||!"file".equals(name)||(fileName=baseName(fileName)).isEmpty())
+					return;
+				//write the part directly into a temp file next to the repository, then rename it into place
+				java.nio.file.Path tempPath=new File(uploadDir, UUID.randomUUID().toString().replaceAll("-", "")).toPath();
+				try {
+					try(InputStream input=part.getInputStream();
+							FileChannel channel=FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)){
+						ByteBuffer buffer=ByteBuffer.allocate(64*1024);
+						long size=0;
+						int n;
+						while((n=input.read(buffer.array()))!=-1) {
+							size+=n;
+							if(size>MAX_UPLOAD_LENGTH) {
+								throw new UploadTooLargeException();
+							}
+							((Buffer)buffer).clear().limit(n);
+							while(buffer.hasRemaining()) {
+								channel.write(buffer);
+							}
+						}
+					}
+					moveIntoRepository(tempPath, fileName);
+					count.incrementAndGet();
+				}finally {
+					Files.deleteIfExists(tempPath);
+				}
+			});
+		}catch (UploadTooLargeException e) {
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return;
 		}
 		try(PrintWriter out=response.getWriter();){
 			out.write(count+" files uploaded");
 		}
 	}
 
+	/**
+	 * Creates a resumable upload session (tus 1.0 creation extension), the file is then sent with PATCH requests.
+	 * Request headers: Upload-Length, Upload-Metadata with key filename
+	 */
+	private void createUpload(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		response.setHeader("Tus-Resumable", TUS_VERSION);
+		long length;
+		try {
+			length=Long.parseLong(request.getHeader("Upload-Length"));
+		}catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		if(length<0) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		if(length>MAX_UPLOAD_LENGTH) {
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return;
+		}
+		String fileName=parseUploadMetadata(request.getHeader("Upload-Metadata")).get("filename");
+		if(fileName==null||(fileName=baseName(fileName)).isEmpty()) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		String id=UUID.randomUUID().toString().replaceAll("-", "");
+		UploadSession session=new UploadSession(fileName, length, new File(uploadDir, id).toPath());
+		Files.createFile(session.tempPath);
+		uploadSessions.put(id, session);
+		if(length==0) {
+			completeUpload(id, session);
+		}else {
+			response.setDateHeader("Upload-Expires", session.expiresAt);
+		}
+		response.setStatus(HttpServletResponse.SC_CREATED);
+		response.setHeader("Location", request.getContextPath()+request.getServletPath()+"/upload/"+id);
+	}
+
+	/**
+	 * @return the session of the upload, null if there is none or it has expired
+	 */
+	private UploadSession getUploadSession(String id) {
+		UploadSession session=uploadSessions.get(id);
+		return session==null||session.expiresAt<=System.currentTimeMillis()?null:session;
+	}
+
+	/**
+	 * Removes the expired upload sessions and deletes their temp files, along with temp files
+	 * which belong to no session and have not been modified for {@link #UPLOAD_EXPIRY}
+	 */
+	private void sweepUploads() {
+		long now=System.currentTimeMillis();
+		uploadSessions.forEach((id, session)->{
+			//a session receiving a chunk is not expired, its expiry is renewed once the chunk is written
+			if(session.expiresAt<=now&&session.busy.compareAndSet(false, true)) {
+				try {
+					if(uploadSessions.remove(id, session)) {
+						Files.deleteIfExists(session.tempPath);
+					}
+				}catch (IOException e) {
+					log("failed to delete expired upload "+session.tempPath, e);
+				}finally {
+					session.busy.set(false);
+				}
+			}
+		});
+		File[] files=uploadDir.listFiles();
+		if(files==null) {
+			return;
+		}
+		for(File file:files) {
+			if(file.isFile()&&!uploadSessions.containsKey(file.getName())&&file.lastModified()+UPLOAD_EXPIRY<=now) {
+				if(!file.delete()) {
+					log("failed to delete stale upload "+file);
+				}
+			}
+		}
+	}
+
+	@HEAD
+	@Path("/upload/{id}")
+	public void getUploadOffset(HttpServletRequest request, HttpServletResponse response, @PathParam("id") String id) throws ServletException, IOException {
+		response.setHeader("Tus-Resumable", TUS_VERSION);
+		response.setHeader("Cache-Control", "no-store");
+		UploadSession session=getUploadSession(id);
+		if(session==null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		response.setHeader("Upload-Offset", String.valueOf(session.offset));
+		response.setHeader("Upload-Length", String.valueOf(session.length));
+		response.setDateHeader("Upload-Expires", session.expiresAt);
+	}
+
+	/**
+	 * Appends a chunk to an upload session at the offset given by request header Upload-Offset.
+	 * Once all bytes are received the file is moved into the repository, otherwise the expiry of the session is renewed.
+	 * The chunk is received with non-blocking reads, a slow client does not hold a container thread.
+	 */
+	@NonBlocking
 	@PATCH
-	@Path("/upload")
-	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
-	@Produces(MediaType.TEXT_PLAIN)
-	public void patch(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		//TODO
-		try(PrintWriter out=response.getWriter();){
-			out.write("file patched");
+	@Path("/upload/{id}")
+	@Consumes(OFFSET_OCTET_STREAM)
+	public void patch(HttpServletRequest request, HttpServletResponse response, @PathParam("id") String id) throws ServletException, IOException {
+		AsyncContext asyncContext=request.getAsyncContext();
+		response.setHeader("Tus-Resumable", TUS_VERSION);
+		UploadSession session=getUploadSession(id);
+		if(session==null) {
+			sendError(asyncContext, HttpServletResponse.SC_NOT_FOUND);
+			return;
 		}
+		long offset;
+		try {
+			offset=Long.parseLong(request.getHeader("Upload-Offset"));
+		}catch (NumberFormatException e) {
+			sendError(asyncContext, HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		if(!session.busy.compareAndSet(false, true)) {//another chunk of this upload is being received
+			sendError(asyncContext, HttpServletResponse.SC_CONFLICT);
+			return;
+		}
+		if(uploadSessions.get(id)!=session) {//completed or expired meanwhile
+			session.busy.set(false);
+			sendError(asyncContext, HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		if(offset!=session.offset) {
+			session.busy.set(false);
+			sendError(asyncContext, HttpServletResponse.SC_CONFLICT);
+			return;
+		}
+		if(request.getContentLengthLong()>session.length-offset) {
+			session.busy.set(false);
+			sendError(asyncContext, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			return;
+		}
+		ChunkChannel channel;
+		try {
+			channel=new ChunkChannel(session);
+			NonBlockingIO.readBody(asyncContext, channel, failure->{
+				try {
+					channel.close();
+					if(session.offset==session.length) {
+						completeUpload(id, session);
+					}else {
+						session.expiresAt=System.currentTimeMillis()+UPLOAD_EXPIRY;
+					}
+				}finally {
+					session.busy.set(false);
+				}
+				if(failure instanceof UploadTooLargeException) {
+					sendError(asyncContext, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+					return;
+				}else if(failure!=null) {//e.g. client disconnected, the offset tells where to resume
+					throw new IOException(failure);
+				}
+				response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+				response.setHeader("Upload-Offset", String.valueOf(session.offset));
+				if(session.offset<session.length) {
+					response.setDateHeader("Upload-Expires", session.expiresAt);
+				}
+				asyncContext.complete();
+			});
+		}catch (IOException|RuntimeException e) {
+			session.busy.set(false);
+			throw e;
+		}
+	}
+
+	private static void sendError(AsyncContext asyncContext, int status) throws IOException {
+		((HttpServletResponse)asyncContext.getResponse()).sendError(status);
+		asyncContext.complete();
 	}
 
+	private void completeUpload(String id, UploadSession session) throws IOException {
+		moveIntoRepository(session.tempPath, session.fileName);
+		uploadSessions.remove(id);
+	}
+
+	/**
+	 * Strips directories from a client supplied file name, which may use either separator
+	 * @return the base name, empty if there is none
+	 */
+	private static String baseName(String fileName) {
+		String baseName=fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'))+1);
+		return baseName.equals(".")||baseName.equals("..")?"":baseName;
+	}
+
+	private void moveIntoRepository(java.nio.file.Path tempPath, String fileName) throws IOException {
+		java.nio.file.Path target=new File(repoDir, fileName).toPath();
+		try {
+			Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE);
+		}catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempPath, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		//the file may have replaced a cached download
+		invalidateCache("/download");
+	}
+
+	/**
+	 * Parses tus Upload-Metadata, comma separated pairs of key and base64 encoded value
+	 */
+	private static Map<String,String> parseUploadMetadata(String metadata) {
+		Map<String,String> map=new HashMap<>();
+		if(metadata==null) {
+			return map;
+		}
+		for(String pair:metadata.split(",")) {
+			String[] keyValue=pair.trim().split(" ", 2);
+			if(keyValue[0].isEmpty()) {
+				continue;
+			}
+			try {
+				map.put(keyValue[0], keyValue.length>1?new String(Base64.getDecoder().decode(keyValue[1].trim()),StandardCharsets.UTF_8):"");
+			}catch (IllegalArgumentException e) {
+				//skip malformed value
+			}
+		}
+		return map;
+	}
+
+	private static class UploadTooLargeException extends IOException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Writes a chunk into the temp file of an upload session at its offset, never beyond its length
+	 */
+	private static class ChunkChannel implements WritableByteChannel {
+		private final UploadSession session;
+		private final FileChannel channel;
+
+		ChunkChannel(UploadSession session) throws IOException {
+			this.session=session;
+			this.channel=FileChannel.open(session.tempPath, StandardOpenOption.WRITE);
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int n=src.remaining();
+			if(session.offset+n>session.length) {
+				throw new UploadTooLargeException();
+			}
+			while(src.hasRemaining()) {
+				session.offset+=channel.write(src, session.offset);
+			}
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	private static class UploadSession {
+		final String fileName;
+		final long length;
+		final java.nio.file.Path tempPath;
+		//set while a chunk is being received or the session is swept
+		final AtomicBoolean busy=new AtomicBoolean();
+		volatile long offset;
+		//epoch millis, renewed by every chunk
+		volatile long expiresAt=System.currentTimeMillis()+UPLOAD_EXPIRY;
+
+		UploadSession(String fileName, long length, java.nio.file.Path tempPath) {
+			this.fileName=fileName;
+			this.length=length;
+			this.tempPath=tempPath;
+		}
+	}
+
+	/**
+	 * Lists the files of the repository as a JSON array or as newline delimited JSON, streamed by the EntityWriter
+	 * of tinyrs while the directory is read, which closes the directory stream once done
+	 */
+	@GET
+	@Path("/files")
+	@Produces({MediaType.APPLICATION_JSON,JacksonEntityWriter.APPLICATION_NDJSON})
+	public Stream<Map<String,Object>> listFiles(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		return Files.list(repoDir.toPath()).map(java.nio.file.Path::toFile).filter(File::isFile).map(file->{
+			Map<String,Object> fileInfo=new LinkedHashMap<>();
+			fileInfo.put("name", file.getName());
+			fileInfo.put("size", file.length());
+			fileInfo.put("lastModified", file.lastModified());
+			return fileInfo;
+		});
+	}
+
+	@VirtualThread
+	@AdaptiveLimit(initialLimit=32,maxLimit=256)
+	@Cached(ttl=60)
 	@GET
 	@Path("/download")
 	@Produces(MediaType.APPLICATION_OCTET_STREAM)
-	public void download(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		String repoRelativePath=request.getParameter("path");
+	public void download(HttpServletRequest request, HttpServletResponse response, @QueryParam("path") String repoRelativePath) throws ServletException, IOException {
 		if(repoRelativePath==null) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST);
 			return;
@@ -145,14 +528,8 @@ public class V1Servlet extends TinyrsDispatcherServlet {
 			response.sendError(HttpServletResponse.SC_NOT_FOUND);
 			return;
 		}
-		response.setStatus(HttpServletResponse.SC_OK);
-		response.setContentType("application/octet-stream");
-		response.setContentLengthLong(file.length());
-		response.setDateHeader("Last-Modified", file.lastModified());
 		String filenameEncoded=new String(file.getName().getBytes(StandardCharsets.UTF_8),StandardCharsets.ISO_8859_1);
 		response.setHeader("Content-Disposition", "attachment; filename=\""+filenameEncoded+"\"");
-		try(ServletOutputStream output=response.getOutputStream()){
-			Files.copy(file.toPath(), output);
-		}
+		FileSender.send(request, response, file, MediaType.APPLICATION_OCTET_STREAM);
 	}
 }